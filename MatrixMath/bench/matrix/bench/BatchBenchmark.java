@@ -0,0 +1,90 @@
+package matrix.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import matrix.MatMath;
+import matrix.MatMathBatch;
+import matrix.MatMathImplTiled;
+
+/**
+ * Compares multiplying a batch of small matrices one MatMath call at a time
+ * with the batched entry points of MatMathBatch
+ *
+ * @author Peter Swantek
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+
+    @Param({ "4", "8", "16", "32" })
+    public int size;
+
+    @Param({ "100000" })
+    public int count;
+
+    private final MatMath perItem = new MatMathImplTiled();
+    private final MatMathBatch batch = new MatMathBatch();
+    private int[][][] A, B, C;
+    private int[] flatA, flatB, flatC;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        A = new int[count][][];
+        B = new int[count][][];
+        C = new int[count][size][size];
+        for (int n = 0; n < count; n++) {
+            A[n] = MatMathBenchmark.random(size, size, random);
+            B[n] = MatMathBenchmark.random(size, size, random);
+        }
+        int elements = size * size;
+        flatA = new int[count * elements];
+        flatB = new int[count * elements];
+        flatC = new int[count * elements];
+        for (int n = 0; n < count; n++) {
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(A[n][i], 0, flatA, n * elements + i * size, size);
+                System.arraycopy(B[n][i], 0, flatB, n * elements + i * size, size);
+            }
+        }
+    }
+
+    @Benchmark
+    public int[][][] oneCallPerItem() {
+        for (int n = 0; n < count; n++) {
+            perItem.multiply(A[n], B[n], C[n]); // the tiled implementation overwrites C
+        }
+        return C;
+    }
+
+    @Benchmark
+    public int[][][] batched() {
+        batch.multiplyBatch(A, B, C);
+        return C;
+    }
+
+    @Benchmark
+    public int[] batchedFlat() {
+        batch.multiplyBatch(flatA, flatB, flatC, count, size, size, size);
+        return flatC;
+    }
+}
@@ -0,0 +1,124 @@
+package matrix.bench;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import matrix.Blas;
+import matrix.MatMathImplPools;
+import matrix.MatMathImplTiled;
+
+/**
+ * Compares the matrix-vector product in Blas with the workaround of
+ * multiplying by an n x 1 matrix, through the thread pool implementation that
+ * submits a task per element of the result and through the tiled one. The
+ * vector kernels are timed on vectors of the same length
+ *
+ * @author Peter Swantek
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GemvBenchmark {
+
+    @Param({ "256", "1024", "4096" })
+    public int size;
+
+    @Param({ "1", "4", "0" }) // 0 means every available core
+    public int threads;
+
+    private ForkJoinPool pool;
+    private Blas blas;
+    private MatMathImplPools pools;
+    private MatMathImplTiled tiled;
+    private int[][] A, column, result;
+    private int[] x, y;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int parallelism = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        pool = new ForkJoinPool(parallelism);
+        blas = new Blas(pool);
+        pools = new MatMathImplPools(parallelism);
+        tiled = new MatMathImplTiled(pool, MatMathImplTiled.DEFAULT_TILE_SIZE);
+        Random random = new Random(42);
+        A = MatMathBenchmark.random(size, size, random);
+        column = MatMathBenchmark.random(size, 1, random);
+        result = new int[size][1];
+        x = new int[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = column[i][0];
+        }
+        y = new int[size];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pools.close();
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int[] gemv() {
+        blas.gemv(1, A, x, 0, y);
+        return y;
+    }
+
+    @Benchmark
+    public int[] gevm() {
+        blas.gevm(1, x, A, 0, y);
+        return y;
+    }
+
+    /*
+     * the n x 1 workaround with a pool task per element of the result
+     */
+    @Benchmark
+    public int[][] columnPools() {
+        pools.multiply(A, column, result);
+        return result;
+    }
+
+    /*
+     * the n x 1 workaround with the tiled recursion, which can only split the rows
+     */
+    @Benchmark
+    public int[][] columnTiled() {
+        tiled.multiply(A, column, result);
+        return result;
+    }
+
+    @Benchmark
+    public long dot() {
+        return blas.dot(x, y);
+    }
+
+    @Benchmark
+    public int[] axpy() {
+        blas.axpy(1, x, y);
+        return y;
+    }
+
+    @Benchmark
+    public double norm() {
+        return blas.norm(x);
+    }
+}
@@ -0,0 +1,100 @@
+package matrix.bench;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import matrix.LUDecomposition;
+import matrix.MatMathLU;
+
+/**
+ * Measures how the blocked LU decomposition and the solves built on it scale
+ * with the size of the matrix and the number of threads
+ *
+ * @author Peter Swantek
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class LUBenchmark {
+
+    @Param({ "256", "512", "1024", "2048", "4096" })
+    public int size;
+
+    @Param({ "1", "2", "4", "0" }) // 0 means every available core
+    public int threads;
+
+    private ForkJoinPool pool;
+    private MatMathLU lu;
+    private double[][] A;
+    private double[] b;
+    private LUDecomposition decomposition;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new ForkJoinPool(threads == 0 ? Runtime.getRuntime().availableProcessors() : threads);
+        lu = new MatMathLU(pool, MatMathLU.DEFAULT_BLOCK_SIZE);
+        Random random = new Random(42);
+        A = new double[size][size];
+        b = new double[size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                A[i][j] = random.nextDouble();
+            }
+            A[i][i] += size; // diagonally dominant, so never singular
+            b[i] = random.nextDouble();
+        }
+        decomposition = lu.decompose(A);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public LUDecomposition decompose() {
+        return lu.decompose(A);
+    }
+
+    @Benchmark
+    public double det() {
+        return lu.det(A);
+    }
+
+    @Benchmark
+    public double[] solve() {
+        return lu.solve(A, b);
+    }
+
+    /*
+     * the substitutions alone, with the decomposition already done
+     */
+    @Benchmark
+    public double[] solveDecomposed() {
+        return decomposition.solve(b);
+    }
+
+    @Benchmark
+    public double[][] inverse() {
+        return decomposition.inverse();
+    }
+}
@@ -0,0 +1,240 @@
+package matrix.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import matrix.IntMatrix;
+import matrix.MatMath;
+import matrix.MatMathImplPools;
+import matrix.MatMathImplPoolsStreams;
+import matrix.MatMathImplStrassen;
+import matrix.MatMathImplStreams;
+import matrix.MatMathImplThreads;
+import matrix.MatMathImplTiled;
+import matrix.MatMathImplTransposed;
+import matrix.MatMathImplVector;
+
+/**
+ * JMH benchmark of multiply and add for every MatMath implementation across
+ * sizes, shapes, thread counts and layouts, jagged int[][] or flat IntMatrix.
+ * Besides ops/s each benchmark reports a gflop counter, the per second rate of
+ * which is the GFLOP/s. Run with -prof gc to get the allocation rate. The
+ * default grid is a quick suite, pass -p size=8,4096 for the extremes
+ *
+ * @author Peter Swantek
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g", "--add-modules", "jdk.incubator.vector" })
+public class MatMathBenchmark {
+
+    /*
+     * the thread per cell implementation runs out of native threads long
+     * before the others slow down, so it is only run up to this many cells
+     */
+    private static final long MAX_THREAD_CELLS = 128 * 128;
+
+    /*
+     * the pools implementation submits a task per cell, past this many cells
+     * a single invocation takes longer than a measurement iteration
+     */
+    private static final long MAX_TASK_CELLS = 512 * 512;
+
+    @Param({ "threads", "streams", "pools", "poolsStreams", "tiled", "strassen", "vector", "transposed" })
+    public String impl;
+
+    @Param({ "64", "256", "1024" })
+    public int size;
+
+    /*
+     * square: size x size times size x size. tallSkinny: size x size/16 times
+     * size/16 x size/16. wide: size/16 x size/16 times size/16 x size
+     */
+    @Param({ "square", "tallSkinny", "wide" })
+    public String shape;
+
+    @Param({ "1", "0" }) // 0 means every available core
+    public int threads;
+
+    @Param({ "jagged", "flat" })
+    public String layout;
+
+    private MatMath math;
+    private ForkJoinPool pool;
+    private int[][] A, B, C; // operands and result of the product
+    private int[][] X, Y, Z; // operands and result of the sum, same shape as C
+    private IntMatrix flatA, flatB, flatC, flatX, flatY, flatZ; // the same as flat matrices
+    private boolean flat;
+    private boolean accumulates; // adds into C instead of overwriting it
+    private double gflopPerMultiply;
+    private double gflopPerAdd;
+
+    /**
+     * Floating point operation counters, the reported rate of gflop is the
+     * GFLOP/s of the benchmark
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Flops {
+        public double gflop;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int small = Math.max(1, size / 16);
+        int m, k, n;
+        switch (shape) {
+        case "square":
+            m = size;
+            k = size;
+            n = size;
+            break;
+        case "tallSkinny":
+            m = size;
+            k = small;
+            n = small;
+            break;
+        case "wide":
+            m = small;
+            k = small;
+            n = size;
+            break;
+        default:
+            throw new IllegalArgumentException("unknown shape: " + shape);
+        }
+
+        if (impl.equals("threads") && (long) m * n > MAX_THREAD_CELLS) {
+            throw new IllegalStateException("skipped: " + m + "x" + n + " needs too many threads for the threads implementation");
+        }
+        if (impl.equals("threads") && threads != 0) {
+            throw new IllegalStateException("skipped: the threads implementation ignores the thread count, it only runs with threads=0");
+        }
+        if (impl.equals("pools") && (long) m * n > MAX_TASK_CELLS) {
+            throw new IllegalStateException("skipped: " + m + "x" + n + " is too many tasks for the pools implementation");
+        }
+
+        int parallelism = threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+        pool = new ForkJoinPool(parallelism);
+        math = create(impl, pool);
+
+        Random random = new Random(42);
+        A = random(m, k, random);
+        B = random(k, n, random);
+        C = new int[m][n];
+        X = random(m, n, random);
+        Y = random(m, n, random);
+        Z = new int[m][n];
+        flat = layout.equals("flat");
+        flatA = IntMatrix.fromArray(A);
+        flatB = IntMatrix.fromArray(B);
+        flatC = new IntMatrix(m, n);
+        flatX = IntMatrix.fromArray(X);
+        flatY = IntMatrix.fromArray(Y);
+        flatZ = new IntMatrix(m, n);
+        accumulates = impl.equals("threads") || impl.equals("pools");
+        gflopPerMultiply = 2.0 * m * k * n / 1e9;
+        gflopPerAdd = (double) m * n / 1e9;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (math instanceof AutoCloseable) {
+            ((AutoCloseable) math).close();
+        }
+        pool.shutdown();
+    }
+
+    /*
+     * the threads and pools implementations accumulate into C, so it is
+     * cleared first to make every invocation do the same work. The clear is
+     * part of the measurement, it costs one pass over C against the n^3 of
+     * the product
+     */
+    @Benchmark
+    public Object multiply(Flops flops) {
+        if (flat) {
+            if (accumulates) {
+                Arrays.fill(flatC.getData(), 0);
+            }
+            math.multiply(flatA, flatB, flatC);
+        } else {
+            if (accumulates) {
+                for (int[] row : C) {
+                    Arrays.fill(row, 0);
+                }
+            }
+            math.multiply(A, B, C);
+        }
+        flops.gflop += gflopPerMultiply;
+        return flat ? flatC : C;
+    }
+
+    @Benchmark
+    public Object add(Flops flops) {
+        if (flat) {
+            math.add(flatX, flatY, flatZ);
+        } else {
+            math.add(X, Y, Z);
+        }
+        flops.gflop += gflopPerAdd;
+        return flat ? flatZ : Z;
+    }
+
+    /*
+     * the fork/join based implementations, streams included, run on the given
+     * pool and the pool ones get a long lived pool of the same parallelism
+     */
+    static MatMath create(String impl, ForkJoinPool pool) {
+        switch (impl) {
+        case "threads":
+            return new MatMathImplThreads();
+        case "streams":
+            return new MatMathImplStreams(pool);
+        case "pools":
+            return new MatMathImplPools(pool.getParallelism());
+        case "poolsStreams":
+            return new MatMathImplPoolsStreams(pool.getParallelism());
+        case "tiled":
+            return new MatMathImplTiled(pool, MatMathImplTiled.DEFAULT_TILE_SIZE);
+        case "strassen":
+            return new MatMathImplStrassen(pool, MatMathImplStrassen.DEFAULT_CUTOFF);
+        case "vector":
+            return new MatMathImplVector(pool);
+        case "transposed":
+            return new MatMathImplTransposed(pool, MatMathImplTransposed.DEFAULT_TRANSPOSE_THRESHOLD);
+        default:
+            throw new IllegalArgumentException("unknown implementation: " + impl);
+        }
+    }
+
+    static int[][] random(int rows, int cols, Random random) {
+        int[][] M = new int[rows][cols];
+        for (int[] row : M) {
+            for (int j = 0; j < cols; j++) {
+                row[j] = random.nextInt(100);
+            }
+        }
+        return M;
+    }
+}
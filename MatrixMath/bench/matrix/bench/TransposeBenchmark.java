@@ -0,0 +1,83 @@
+package matrix.bench;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import matrix.MatMathImplTransposed;
+import matrix.MatrixTranspose;
+
+/**
+ * Finds the size from which transposing B before a dot product multiply pays
+ * for itself: the direct and transposed benchmarks run the same dot product
+ * kernel, one reading columns of B and the other rows of a transposed copy
+ * made on every call. The transpose benchmarks time the copy on its own
+ *
+ * @author Peter Swantek
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransposeBenchmark {
+
+    @Param({ "8", "16", "32", "64", "128", "256", "512", "1024", "2048" })
+    public int size;
+
+    private MatMathImplTransposed direct, transposed;
+    private MatrixTranspose transposer;
+    private int[][] A, B, C, T;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        direct = new MatMathImplTransposed(pool, Integer.MAX_VALUE);
+        transposed = new MatMathImplTransposed(pool, 0);
+        transposer = new MatrixTranspose(pool);
+        Random random = new Random(42);
+        A = MatMathBenchmark.random(size, size, random);
+        B = MatMathBenchmark.random(size, size, random);
+        C = new int[size][size];
+        T = new int[size][size];
+    }
+
+    @Benchmark
+    public int[][] multiplyDirect() {
+        direct.multiply(A, B, C);
+        return C;
+    }
+
+    @Benchmark
+    public int[][] multiplyTransposed() {
+        transposed.multiply(A, B, C);
+        return C;
+    }
+
+    @Benchmark
+    public int[][] transposeOutOfPlace() {
+        transposer.transpose(B, T);
+        return T;
+    }
+
+    @Benchmark
+    public int[][] transposeInPlace() {
+        transposer.transpose(B); // B is multiplied by nothing here, so flipping it back and forth is harmless
+        return B;
+    }
+}
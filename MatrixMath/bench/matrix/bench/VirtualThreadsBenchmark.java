@@ -0,0 +1,108 @@
+package matrix.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import matrix.MatMath;
+import matrix.MatMathImplThreads;
+import matrix.MatMathImplVirtualThreads;
+import matrix.MatMathImplVirtualThreads.Granularity;
+
+/**
+ * Compares the platform thread per cell implementation with the virtual
+ * thread one at each granularity. Run with -prof gc for the memory side of
+ * the comparison, and on JDK 21 or newer so the virtual threads are real
+ *
+ * @author Peter Swantek
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadsBenchmark {
+
+    private static final int MAX_PLATFORM_SIZE = 128; // beyond this the platform version runs out of native threads
+
+    @Param({ "platformCell", "virtualCell", "virtualRow", "virtualTile" })
+    public String impl;
+
+    @Param({ "16", "64", "128", "512" })
+    public int size;
+
+    private MatMath math;
+    private int[][] A, B, C;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (impl.equals("platformCell") && size > MAX_PLATFORM_SIZE) {
+            throw new IllegalStateException("skipped: " + size + "x" + size + " needs too many platform threads");
+        }
+        switch (impl) {
+        case "platformCell":
+            math = new MatMathImplThreads();
+            break;
+        case "virtualCell":
+            math = new MatMathImplVirtualThreads(Granularity.CELL, MatMathImplVirtualThreads.DEFAULT_TILE_SIZE);
+            break;
+        case "virtualRow":
+            math = new MatMathImplVirtualThreads(Granularity.ROW, MatMathImplVirtualThreads.DEFAULT_TILE_SIZE);
+            break;
+        case "virtualTile":
+            math = new MatMathImplVirtualThreads(Granularity.TILE, MatMathImplVirtualThreads.DEFAULT_TILE_SIZE);
+            break;
+        default:
+            throw new IllegalArgumentException("unknown implementation: " + impl);
+        }
+        Random random = new Random(42);
+        A = MatMathBenchmark.random(size, size, random);
+        B = MatMathBenchmark.random(size, size, random);
+        C = new int[size][size];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (math instanceof MatMathImplVirtualThreads) {
+            ((MatMathImplVirtualThreads) math).close();
+        }
+    }
+
+    /*
+     * the platform version accumulates into C
+     */
+    @Setup(Level.Invocation)
+    public void clearResult() {
+        for (int[] row : C) {
+            Arrays.fill(row, 0);
+        }
+    }
+
+    @Benchmark
+    public int[][] multiply() {
+        math.multiply(A, B, C);
+        return C;
+    }
+
+    @Benchmark
+    public int[][] add() {
+        math.add(A, B, C);
+        return C;
+    }
+}
@@ -0,0 +1,31 @@
+package matrix;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+public interface AsyncMatMath {
+
+    CompletableFuture<int[][]> multiply(int[][] A, int[][] B); // multiply A and B into a new matrix
+
+    CompletableFuture<int[][]> add(int[][] A, int[][] B); // add A and B into a new matrix
+
+    // versions that start as soon as both operands are ready, so dependent
+    // operations like (A+B)*C can be chained without blocking in between
+
+    CompletableFuture<int[][]> multiply(CompletableFuture<int[][]> A, CompletableFuture<int[][]> B);
+
+    CompletableFuture<int[][]> add(CompletableFuture<int[][]> A, CompletableFuture<int[][]> B);
+
+    /**
+     * Runs a blocking MatMath implementation on an executor, each operation is
+     * one task so cancelling only helps before it has started
+     *
+     * @param impl the implementation to run
+     * @param executor where to run it
+     * @return an asynchronous view of impl
+     */
+    static AsyncMatMath wrap(MatMath impl, Executor executor) {
+        return new AsyncMatMathAdapter(impl, executor);
+    }
+
+}
@@ -0,0 +1,61 @@
+package matrix;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs each operation of a blocking MatMath implementation as a single task on
+ * an executor
+ *
+ * @author Peter Swantek
+ *
+ */
+class AsyncMatMathAdapter implements AsyncMatMath {
+
+    private final MatMath impl;
+    private final Executor executor;
+
+    AsyncMatMathAdapter(MatMath impl, Executor executor) {
+        this.impl = impl;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<int[][]> multiply(int[][] A, int[][] B) {
+        return CompletableFuture.supplyAsync(() -> {
+            int[][] C = new int[A.length][B.length == 0 ? 0 : B[0].length];
+            impl.multiply(A, B, C);
+            return C;
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<int[][]> add(int[][] A, int[][] B) {
+        return CompletableFuture.supplyAsync(() -> {
+            int[][] C = new int[A.length][A.length == 0 ? 0 : A[0].length];
+            impl.add(A, B, C);
+            return C;
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<int[][]> multiply(CompletableFuture<int[][]> A, CompletableFuture<int[][]> B) {
+        return A.thenCombine(B, Operands::new).thenComposeAsync(o -> multiply(o.first, o.second), executor);
+    }
+
+    @Override
+    public CompletableFuture<int[][]> add(CompletableFuture<int[][]> A, CompletableFuture<int[][]> B) {
+        return A.thenCombine(B, Operands::new).thenComposeAsync(o -> add(o.first, o.second), executor);
+    }
+
+    private static final class Operands {
+
+        final int[][] first;
+        final int[][] second;
+
+        Operands(int[][] first, int[][] second) {
+            this.first = first;
+            this.second = second;
+        }
+    }
+}
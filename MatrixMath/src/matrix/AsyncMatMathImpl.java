@@ -0,0 +1,192 @@
+package matrix;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides an implementation of the AsyncMatMath interface that splits every
+ * operation into bands of rows run as separate tasks on a pluggable executor.
+ * Each band checks the returned future before every row, so cancelling it (or
+ * a band failing) stops the bands that are already running as well as the
+ * ones that have not started. The future completes when the last band is done,
+ * no thread ever blocks waiting for it
+ *
+ * @author Peter Swantek
+ *
+ */
+public class AsyncMatMathImpl implements AsyncMatMath {
+
+    private final Executor executor;
+    private final int bands;
+
+    /**
+     * Creates an asynchronous implementation that splits work into 4 bands per
+     * CPU core
+     *
+     * @param executor where to run the bands
+     */
+    public AsyncMatMathImpl(Executor executor) {
+        this(executor, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an asynchronous implementation
+     *
+     * @param executor where to run the bands
+     * @param bands how many bands of rows to split each operation into
+     */
+    public AsyncMatMathImpl(Executor executor, int bands) {
+        if (bands < 1) {
+            throw new IllegalArgumentException("need at least one band: " + bands);
+        }
+        this.executor = executor;
+        this.bands = bands;
+    }
+
+    /**
+     * Multiplies 2 matrices into a new one
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @return a future for the product, cancelling it stops the work
+     */
+    @Override
+    public CompletableFuture<int[][]> multiply(int[][] A, int[][] B) {
+        int[][] C = new int[A.length][B.length == 0 ? 0 : B[0].length];
+        return run(C, i -> {
+            int[] rowA = A[i];
+            int[] rowC = C[i];
+            for (int k = 0; k < B.length; k++) {
+                int a = rowA[k];
+                int[] rowB = B[k];
+                for (int j = 0; j < rowC.length; j++) {
+                    rowC[j] += a * rowB[j];
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds two matrices into a new one
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @return a future for the sum, cancelling it stops the work
+     */
+    @Override
+    public CompletableFuture<int[][]> add(int[][] A, int[][] B) {
+        int[][] C = new int[A.length][A.length == 0 ? 0 : A[0].length];
+        return run(C, i -> {
+            int[] rowA = A[i], rowB = B[i], rowC = C[i];
+            for (int j = 0; j < rowC.length; j++) {
+                rowC[j] = rowA[j] + rowB[j];
+            }
+        });
+    }
+
+    /**
+     * Multiplies the results of two futures as soon as both are ready.
+     * Cancelling the returned future stops the product, or keeps it from
+     * starting, but leaves the operands alone since other stages may share them
+     *
+     * @param A future for the first matrix to multiply
+     * @param B future for the second matrix to multiply
+     * @return a future for the product
+     */
+    @Override
+    public CompletableFuture<int[][]> multiply(CompletableFuture<int[][]> A, CompletableFuture<int[][]> B) {
+        return chain(A, B, true);
+    }
+
+    /**
+     * Adds the results of two futures as soon as both are ready. Cancelling
+     * the returned future stops the sum, or keeps it from starting, but leaves
+     * the operands alone since other stages may share them
+     *
+     * @param A future for a matrix to be added
+     * @param B future for a matrix to be added
+     * @return a future for the sum
+     */
+    @Override
+    public CompletableFuture<int[][]> add(CompletableFuture<int[][]> A, CompletableFuture<int[][]> B) {
+        return chain(A, B, false);
+    }
+
+    /*
+     * the work for one row of the result
+     */
+    private interface RowTask {
+        void compute(int row);
+    }
+
+    /*
+     * splits the rows of C into bands and completes the future with C when
+     * the last band finishes
+     */
+    private CompletableFuture<int[][]> run(int[][] C, RowTask task) {
+        CompletableFuture<int[][]> result = new CompletableFuture<>();
+        int rows = C.length;
+        int count = Math.min(bands, rows);
+        if (count == 0) {
+            result.complete(C);
+            return result;
+        }
+        AtomicInteger remaining = new AtomicInteger(count);
+        for (int b = 0; b < count; b++) {
+            int rowLo = (int) ((long) rows * b / count);
+            int rowHi = (int) ((long) rows * (b + 1) / count);
+            try {
+                executor.execute(() -> {
+                    try {
+                        for (int i = rowLo; i < rowHi && !result.isDone(); i++) { // stop if cancelled or another band failed
+                            task.compute(i);
+                        }
+                        if (remaining.decrementAndGet() == 0) {
+                            result.complete(C);
+                        }
+                    } catch (Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(e); // the bands already running see this and stop
+                break;
+            }
+        }
+        return result;
+    }
+
+    /*
+     * runs the operation once both operands are ready. Only the operation
+     * scheduled here is cancelled with the result, cancellation never travels
+     * upstream to the operands
+     */
+    private CompletableFuture<int[][]> chain(CompletableFuture<int[][]> A, CompletableFuture<int[][]> B, boolean multiply) {
+        CompletableFuture<int[][]> result = new CompletableFuture<>();
+        A.thenAcceptBoth(B, (a, b) -> {
+            if (result.isDone()) { // cancelled while the operands were being computed, schedule nothing
+                return;
+            }
+            CompletableFuture<int[][]> stage = multiply ? multiply(a, b) : add(a, b);
+            result.whenComplete((r, t) -> {
+                if (result.isCancelled()) {
+                    stage.cancel(true);
+                }
+            });
+            stage.whenComplete((C, t) -> {
+                if (t != null) {
+                    result.completeExceptionally(t);
+                } else {
+                    result.complete(C);
+                }
+            });
+        }).whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            }
+        });
+        return result;
+    }
+}
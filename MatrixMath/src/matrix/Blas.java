@@ -0,0 +1,638 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+/**
+ * BLAS style operations that update their result in place, so iterative code
+ * can reuse its buffers instead of zeroing them and allocating temporaries.
+ * gemm computes C = alpha * op(A) * op(B) + beta * C, where op(X) is X or its
+ * transpose. Transposed operands are read in place, never copied. The rows of
+ * C are split into bands that run in parallel on a fork/join pool, and each
+ * band reads rows of op(B) rather than columns wherever the flags allow it.
+ * As in BLAS, when beta is 0 the old contents of C are ignored, even NaNs.
+ * gemv, gevm and the vector kernels dot, axpy and norm run on the same
+ * contiguous bands, so a matrix-vector product is one task per band instead
+ * of a product with an n x 1 matrix
+ *
+ * @author Peter Swantek
+ *
+ */
+public class Blas {
+
+    private static final int LEAF_WORK = 1 << 16; // multiply-adds a band does before it stops splitting
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a BLAS that uses the common fork/join pool
+     */
+    public Blas() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a BLAS
+     *
+     * @param pool the fork/join pool to run the row bands on
+     */
+    public Blas(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * C = alpha * op(A) * op(B) + beta * C for int matrices
+     *
+     * @param transA use the transpose of A
+     * @param transB use the transpose of B
+     * @param alpha scales the product
+     * @param A the first matrix of the product
+     * @param B the second matrix of the product
+     * @param beta scales the old contents of C, 0 overwrites C
+     * @param C the matrix updated in place, must not share a row with A or B
+     */
+    public void gemm(boolean transA, boolean transB, int alpha, int[][] A, int[][] B, int beta, int[][] C) {
+        checkDistinct(A, B, C);
+        int rows = C.length;
+        int cols = rows == 0 ? 0 : C[0].length;
+        int inner = checkShapes(transA, transB, rowsOf(A), colsOf(A), rowsOf(B), colsOf(B), rows, cols);
+        invoke(rows, (long) inner * cols, (lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                int[] rowC = C[i];
+                if (beta == 0) {
+                    Arrays.fill(rowC, 0);
+                } else if (beta != 1) {
+                    for (int j = 0; j < cols; j++) {
+                        rowC[j] *= beta;
+                    }
+                }
+                if (alpha == 0) {
+                    continue;
+                }
+                if (!transB) { // i-k-j, walks rows of B
+                    for (int k = 0; k < inner; k++) {
+                        int a = alpha * (transA ? A[k][i] : A[i][k]);
+                        int[] rowB = B[k];
+                        for (int j = 0; j < cols; j++) {
+                            rowC[j] += a * rowB[j];
+                        }
+                    }
+                } else if (!transA) { // row of A dotted with row of B
+                    int[] rowA = A[i];
+                    for (int j = 0; j < cols; j++) {
+                        int[] rowB = B[j];
+                        int sum = 0;
+                        for (int k = 0; k < inner; k++) {
+                            sum += rowA[k] * rowB[k];
+                        }
+                        rowC[j] += alpha * sum;
+                    }
+                } else {
+                    for (int j = 0; j < cols; j++) {
+                        int[] rowB = B[j];
+                        int sum = 0;
+                        for (int k = 0; k < inner; k++) {
+                            sum += A[k][i] * rowB[k];
+                        }
+                        rowC[j] += alpha * sum;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * C = alpha * op(A) * op(B) + beta * C for double matrices
+     *
+     * @param transA use the transpose of A
+     * @param transB use the transpose of B
+     * @param alpha scales the product
+     * @param A the first matrix of the product
+     * @param B the second matrix of the product
+     * @param beta scales the old contents of C, 0 overwrites C
+     * @param C the matrix updated in place, must not share a row with A or B
+     */
+    public void gemm(boolean transA, boolean transB, double alpha, double[][] A, double[][] B, double beta, double[][] C) {
+        checkDistinct(A, B, C);
+        int rows = C.length;
+        int cols = rows == 0 ? 0 : C[0].length;
+        int inner = checkShapes(transA, transB, rowsOf(A), colsOf(A), rowsOf(B), colsOf(B), rows, cols);
+        invoke(rows, (long) inner * cols, (lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                double[] rowC = C[i];
+                if (beta == 0) {
+                    Arrays.fill(rowC, 0);
+                } else if (beta != 1) {
+                    for (int j = 0; j < cols; j++) {
+                        rowC[j] *= beta;
+                    }
+                }
+                if (alpha == 0) {
+                    continue;
+                }
+                if (!transB) {
+                    for (int k = 0; k < inner; k++) {
+                        double a = alpha * (transA ? A[k][i] : A[i][k]);
+                        double[] rowB = B[k];
+                        for (int j = 0; j < cols; j++) {
+                            rowC[j] += a * rowB[j];
+                        }
+                    }
+                } else if (!transA) {
+                    double[] rowA = A[i];
+                    for (int j = 0; j < cols; j++) {
+                        double[] rowB = B[j];
+                        double sum = 0;
+                        for (int k = 0; k < inner; k++) {
+                            sum += rowA[k] * rowB[k];
+                        }
+                        rowC[j] += alpha * sum;
+                    }
+                } else {
+                    for (int j = 0; j < cols; j++) {
+                        double[] rowB = B[j];
+                        double sum = 0;
+                        for (int k = 0; k < inner; k++) {
+                            sum += A[k][i] * rowB[k];
+                        }
+                        rowC[j] += alpha * sum;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * C = alpha * op(A) * op(B) + beta * C for flat double matrices, which
+     * may be views of blocks inside larger matrices
+     *
+     * @param transA use the transpose of A
+     * @param transB use the transpose of B
+     * @param alpha scales the product
+     * @param A the first matrix of the product
+     * @param B the second matrix of the product
+     * @param beta scales the old contents of C, 0 overwrites C
+     * @param C the matrix updated in place, must not overlap A or B, views of other blocks of the same array are fine
+     */
+    public void gemm(boolean transA, boolean transB, double alpha, DoubleMatrix A, DoubleMatrix B, double beta, DoubleMatrix C) {
+        checkDisjoint(A, C);
+        checkDisjoint(B, C);
+        int rows = C.getRows();
+        int cols = C.getCols();
+        int inner = checkShapes(transA, transB, A.getRows(), A.getCols(), B.getRows(), B.getCols(), rows, cols);
+        double[] a = A.getData(), b = B.getData(), c = C.getData();
+        int aOff = A.getOffset(), bOff = B.getOffset(), cOff = C.getOffset();
+        int aStride = A.getStride(), bStride = B.getStride(), cStride = C.getStride();
+        // distance in a between op(A)(i, k) and op(A)(i, k + 1), and between op(A)(i, k) and op(A)(i + 1, k)
+        int aStepK = transA ? aStride : 1, aStepI = transA ? 1 : aStride;
+        invoke(rows, (long) inner * cols, (lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                int rowC = cOff + i * cStride;
+                if (beta == 0) {
+                    Arrays.fill(c, rowC, rowC + cols, 0);
+                } else if (beta != 1) {
+                    for (int j = 0; j < cols; j++) {
+                        c[rowC + j] *= beta;
+                    }
+                }
+                if (alpha == 0) {
+                    continue;
+                }
+                int rowA = aOff + i * aStepI;
+                if (!transB) {
+                    for (int k = 0; k < inner; k++) {
+                        double value = alpha * a[rowA + k * aStepK];
+                        int rowB = bOff + k * bStride;
+                        for (int j = 0; j < cols; j++) {
+                            c[rowC + j] += value * b[rowB + j];
+                        }
+                    }
+                } else {
+                    for (int j = 0; j < cols; j++) {
+                        int rowB = bOff + j * bStride;
+                        double sum = 0;
+                        for (int k = 0; k < inner; k++) {
+                            sum += a[rowA + k * aStepK] * b[rowB + k];
+                        }
+                        c[rowC + j] += alpha * sum;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * y = alpha * A * x + beta * y for int matrices, each band of rows of A
+     * computes the same band of y
+     *
+     * @param alpha scales the product
+     * @param A the matrix
+     * @param x the vector multiplied by A, as long as a row of A
+     * @param beta scales the old contents of y, 0 overwrites y
+     * @param y the vector updated in place, as long as a column of A, must not be x
+     */
+    public void gemv(int alpha, int[][] A, int[] x, int beta, int[] y) {
+        checkDistinct(x, y);
+        int cols = checkVectorShapes(rowsOf(A), colsOf(A), x.length, y.length);
+        invoke(y.length, cols, (lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                int[] rowA = A[i];
+                int sum = 0;
+                for (int j = 0; j < cols; j++) {
+                    sum += rowA[j] * x[j];
+                }
+                y[i] = alpha * sum + (beta == 0 ? 0 : beta * y[i]);
+            }
+        });
+    }
+
+    /**
+     * y = alpha * A * x + beta * y for double matrices, each band of rows of A
+     * computes the same band of y
+     *
+     * @param alpha scales the product
+     * @param A the matrix
+     * @param x the vector multiplied by A, as long as a row of A
+     * @param beta scales the old contents of y, 0 overwrites y
+     * @param y the vector updated in place, as long as a column of A, must not be x
+     */
+    public void gemv(double alpha, double[][] A, double[] x, double beta, double[] y) {
+        checkDistinct(x, y);
+        int cols = checkVectorShapes(rowsOf(A), colsOf(A), x.length, y.length);
+        invoke(y.length, cols, (lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                double[] rowA = A[i];
+                double sum = 0;
+                for (int j = 0; j < cols; j++) {
+                    sum += rowA[j] * x[j];
+                }
+                y[i] = alpha * sum + (beta == 0 ? 0 : beta * y[i]);
+            }
+        });
+    }
+
+    /**
+     * y = alpha * x * A + beta * y for int matrices, x times A from the left.
+     * y is split into bands of columns instead of A into bands of rows, so
+     * every band walks along the rows of A and owns its part of y, and no two
+     * bands add into the same element
+     *
+     * @param alpha scales the product
+     * @param x the vector multiplied by A, as long as a column of A
+     * @param A the matrix
+     * @param beta scales the old contents of y, 0 overwrites y
+     * @param y the vector updated in place, as long as a row of A, must not be x
+     */
+    public void gevm(int alpha, int[] x, int[][] A, int beta, int[] y) {
+        checkDistinct(x, y);
+        int rows = rowsOf(A);
+        checkVectorShapes(colsOf(A), rows, x.length, y.length);
+        invoke(y.length, rows, (lo, hi) -> {
+            if (beta == 0) {
+                Arrays.fill(y, lo, hi, 0);
+            } else if (beta != 1) {
+                for (int j = lo; j < hi; j++) {
+                    y[j] *= beta;
+                }
+            }
+            for (int i = 0; i < rows; i++) {
+                int a = alpha * x[i];
+                int[] rowA = A[i];
+                for (int j = lo; j < hi; j++) {
+                    y[j] += a * rowA[j];
+                }
+            }
+        });
+    }
+
+    /**
+     * y = alpha * x * A + beta * y for double matrices, x times A from the
+     * left. y is split into bands of columns instead of A into bands of rows,
+     * so every band walks along the rows of A and owns its part of y, and no
+     * two bands add into the same element
+     *
+     * @param alpha scales the product
+     * @param x the vector multiplied by A, as long as a column of A
+     * @param A the matrix
+     * @param beta scales the old contents of y, 0 overwrites y
+     * @param y the vector updated in place, as long as a row of A, must not be x
+     */
+    public void gevm(double alpha, double[] x, double[][] A, double beta, double[] y) {
+        checkDistinct(x, y);
+        int rows = rowsOf(A);
+        checkVectorShapes(colsOf(A), rows, x.length, y.length);
+        invoke(y.length, rows, (lo, hi) -> {
+            if (beta == 0) {
+                Arrays.fill(y, lo, hi, 0);
+            } else if (beta != 1) {
+                for (int j = lo; j < hi; j++) {
+                    y[j] *= beta;
+                }
+            }
+            for (int i = 0; i < rows; i++) {
+                double a = alpha * x[i];
+                double[] rowA = A[i];
+                for (int j = lo; j < hi; j++) {
+                    y[j] += a * rowA[j];
+                }
+            }
+        });
+    }
+
+    /**
+     * @param x a vector
+     * @param y a vector as long as x
+     * @return the dot product of x and y, as a long so it does not overflow
+     */
+    public long dot(int[] x, int[] y) {
+        checkLengths(x.length, y.length);
+        return reduce(x.length, (lo, hi) -> {
+            long sum = 0;
+            for (int i = lo; i < hi; i++) {
+                sum += (long) x[i] * y[i];
+            }
+            return sum;
+        }, Long::sum, 0L);
+    }
+
+    /**
+     * @param x a vector
+     * @param y a vector as long as x
+     * @return the dot product of x and y
+     */
+    public double dot(double[] x, double[] y) {
+        checkLengths(x.length, y.length);
+        return reduce(x.length, (lo, hi) -> {
+            double sum = 0;
+            for (int i = lo; i < hi; i++) {
+                sum += x[i] * y[i];
+            }
+            return sum;
+        }, Double::sum, 0.0);
+    }
+
+    /**
+     * y = alpha * x + y
+     *
+     * @param alpha scales x
+     * @param x a vector
+     * @param y a vector as long as x, updated in place
+     */
+    public void axpy(int alpha, int[] x, int[] y) {
+        checkLengths(x.length, y.length);
+        invoke(y.length, 1, (lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                y[i] += alpha * x[i];
+            }
+        });
+    }
+
+    /**
+     * y = alpha * x + y
+     *
+     * @param alpha scales x
+     * @param x a vector
+     * @param y a vector as long as x, updated in place
+     */
+    public void axpy(double alpha, double[] x, double[] y) {
+        checkLengths(x.length, y.length);
+        invoke(y.length, 1, (lo, hi) -> {
+            for (int i = lo; i < hi; i++) {
+                y[i] += alpha * x[i];
+            }
+        });
+    }
+
+    /**
+     * @param x a vector
+     * @return its Euclidean length, the square root of the sum of the squares of its elements
+     */
+    public double norm(int[] x) {
+        return Math.sqrt(reduce(x.length, (lo, hi) -> {
+            double sum = 0;
+            for (int i = lo; i < hi; i++) {
+                double value = x[i];
+                sum += value * value;
+            }
+            return sum;
+        }, Double::sum, 0.0));
+    }
+
+    /**
+     * @param x a vector
+     * @return its Euclidean length, the square root of the sum of the squares of its elements
+     */
+    public double norm(double[] x) {
+        return Math.sqrt(reduce(x.length, (lo, hi) -> {
+            double sum = 0;
+            for (int i = lo; i < hi; i++) {
+                sum += x[i] * x[i];
+            }
+            return sum;
+        }, Double::sum, 0.0));
+    }
+
+    /*
+     * the work for a band of rows of the result
+     */
+    interface RowKernel {
+        void compute(int rowLo, int rowHi);
+    }
+
+    /*
+     * runs the kernel over rows 0 to rows in parallel bands of about LEAF_WORK
+     * multiply-adds, or directly on the caller if there is only one band
+     */
+    void invoke(int rows, long workPerRow, RowKernel kernel) {
+        if (rows == 0) {
+            return;
+        }
+        int grain = (int) Math.max(1, Math.min(rows, LEAF_WORK / Math.max(1, workPerRow)));
+        if (grain >= rows) {
+            kernel.compute(0, rows);
+        } else {
+            pool.invoke(new BandTask(kernel, 0, rows, grain));
+        }
+    }
+
+    /*
+     * the partial result of a range of elements of a reduction
+     */
+    interface RangeReducer<T> {
+        T compute(int lo, int hi);
+    }
+
+    /*
+     * runs the reducer over elements 0 to n in the same bands invoke uses for
+     * one multiply-add per element, and combines the partial results of the
+     * bands in order
+     */
+    <T> T reduce(int n, RangeReducer<T> reducer, BinaryOperator<T> combine, T identity) {
+        if (n == 0) {
+            return identity;
+        }
+        int grain = Math.min(n, LEAF_WORK);
+        if (grain >= n) {
+            return reducer.compute(0, n);
+        }
+        return pool.invoke(new ReduceTask<>(reducer, combine, 0, n, grain));
+    }
+
+    /*
+     * returns the inner dimension of A * x after checking y fits it
+     */
+    private static int checkVectorShapes(int rows, int cols, int xLength, int yLength) {
+        if (xLength != cols || yLength != rows) {
+            throw new IllegalArgumentException("cannot multiply " + rows + "x" + cols + " by a vector of " + xLength + " into a vector of " + yLength);
+        }
+        return cols;
+    }
+
+    /*
+     * y is written while x is still being read, by other bands as well
+     */
+    private static void checkDistinct(Object x, Object y) {
+        if (x == y) {
+            throw new IllegalArgumentException("the result vector must not be the vector being multiplied");
+        }
+    }
+
+    /*
+     * C is zeroed or scaled band by band while other bands still read A and
+     * B, so C must not be either of them or share a row with them
+     */
+    private static void checkDistinct(Object[] A, Object[] B, Object[] C) {
+        if (C == A || C == B) {
+            throw new IllegalArgumentException("the result matrix must not be one of the matrices being multiplied");
+        }
+        Set<Object> rows = Collections.newSetFromMap(new IdentityHashMap<>());
+        rows.addAll(Arrays.asList(A));
+        rows.addAll(Arrays.asList(B));
+        for (Object row : C) {
+            if (rows.contains(row)) {
+                throw new IllegalArgumentException("the result matrix must not share a row with the matrices being multiplied");
+            }
+        }
+    }
+
+    /*
+     * the same for views, which only clash if they share an array and some
+     * element. The rows of a view are disjoint runs in increasing order, so
+     * the two lists of runs are merged
+     */
+    private static void checkDisjoint(DoubleMatrix X, DoubleMatrix C) {
+        if (X.getData() != C.getData() || X.getCols() == 0 || C.getCols() == 0) {
+            return;
+        }
+        int i = 0, j = 0;
+        while (i < X.getRows() && j < C.getRows()) {
+            long xStart = X.getOffset() + (long) i * X.getStride(), xEnd = xStart + X.getCols();
+            long cStart = C.getOffset() + (long) j * C.getStride(), cEnd = cStart + C.getCols();
+            if (xStart < cEnd && cStart < xEnd) {
+                throw new IllegalArgumentException("the result matrix must not overlap the matrices being multiplied");
+            }
+            if (xEnd <= cEnd) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+    }
+
+    private static void checkLengths(int xLength, int yLength) {
+        if (xLength != yLength) {
+            throw new IllegalArgumentException("vector lengths differ: " + xLength + " and " + yLength);
+        }
+    }
+
+    /*
+     * returns the inner dimension of op(A) * op(B) after checking it fits C
+     */
+    private static int checkShapes(boolean transA, boolean transB, int aRows, int aCols, int bRows, int bCols, int rows, int cols) {
+        int opARows = transA ? aCols : aRows, opACols = transA ? aRows : aCols;
+        int opBRows = transB ? bCols : bRows, opBCols = transB ? bRows : bCols;
+        if (opARows != rows || opBCols != cols || opACols != opBRows) {
+            throw new IllegalArgumentException("cannot multiply " + opARows + "x" + opACols + " by " + opBRows + "x" + opBCols + " into " + rows + "x" + cols);
+        }
+        return opACols;
+    }
+
+    private static int rowsOf(Object[] A) {
+        return A.length;
+    }
+
+    private static int colsOf(int[][] A) {
+        return A.length == 0 ? 0 : A[0].length;
+    }
+
+    private static int colsOf(double[][] A) {
+        return A.length == 0 ? 0 : A[0].length;
+    }
+
+    /*
+     * splits a range of rows in half until it is no bigger than the grain
+     */
+    private static final class BandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RowKernel kernel;
+        private final int lo, hi, grain;
+
+        BandTask(RowKernel kernel, int lo, int hi, int grain) {
+            this.kernel = kernel;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                kernel.compute(lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new BandTask(kernel, lo, mid, grain), new BandTask(kernel, mid, hi, grain));
+        }
+    }
+
+    /*
+     * splits a range of elements in half until it is no bigger than the
+     * grain, and combines the results of the halves
+     */
+    private static final class ReduceTask<T> extends RecursiveTask<T> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RangeReducer<T> reducer;
+        private final BinaryOperator<T> combine;
+        private final int lo, hi, grain;
+
+        ReduceTask(RangeReducer<T> reducer, BinaryOperator<T> combine, int lo, int hi, int grain) {
+            this.reducer = reducer;
+            this.combine = combine;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected T compute() {
+            if (hi - lo <= grain) {
+                return reducer.compute(lo, hi);
+            }
+            int mid = (lo + hi) >>> 1;
+            ReduceTask<T> left = new ReduceTask<>(reducer, combine, lo, mid, grain);
+            left.fork();
+            T right = new ReduceTask<>(reducer, combine, mid, hi, grain).compute();
+            return combine.apply(left.join(), right);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package matrix;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * A lazily evaluated matrix expression. Building an expression only records
+ * the operations, for example
+ * <code>Expr.of(A).plus(B).times(C).times(D).evaluate(impl)</code>, and nothing
+ * is computed until evaluate is called. When evaluating:
+ * <ul>
+ * <li>nested sums and differences are flattened and computed in a single pass
+ * over all their operands, with no temporary per addition</li>
+ * <li>chains of products are flattened and multiplied in the cheapest order
+ * found with the matrix chain order dynamic program</li>
+ * <li>sub expressions used more than once are computed once</li>
+ * <li>temporaries come from a MatrixBufferPool and go back to it as soon as the
+ * last operation reading them is done</li>
+ * <li>with MatMathImplTiled, a sum or difference of two matrices that is the
+ * left factor of a product is never stored, the tiled kernel adds its rows as
+ * it reads them. Other implementations get the sum in a pooled temporary</li>
+ * </ul>
+ * Products are computed by whichever MatMath implementation is passed in
+ *
+ * @author Peter Swantek
+ *
+ */
+public abstract class Expr {
+
+    private final int rows;
+    private final int cols;
+
+    private Expr(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    /**
+     * @param A a matrix
+     * @return an expression whose value is A, A is not copied
+     */
+    public static Expr of(int[][] A) {
+        return new Leaf(A);
+    }
+
+    public Expr plus(int[][] B) {
+        return plus(of(B));
+    }
+
+    /**
+     * @param other an expression of the same shape as this one
+     * @return an expression for this + other
+     */
+    public Expr plus(Expr other) {
+        return sum(other, 1);
+    }
+
+    public Expr minus(int[][] B) {
+        return minus(of(B));
+    }
+
+    /**
+     * @param other an expression of the same shape as this one
+     * @return an expression for this - other
+     */
+    public Expr minus(Expr other) {
+        return sum(other, -1);
+    }
+
+    public Expr times(int[][] B) {
+        return times(of(B));
+    }
+
+    /**
+     * @param other an expression with as many rows as this one has columns
+     * @return an expression for this * other
+     */
+    public Expr times(Expr other) {
+        if (cols != other.rows) {
+            throw new IllegalArgumentException("cannot multiply " + rows + "x" + cols + " by " + other.rows + "x" + other.cols);
+        }
+        List<Expr> factors = new ArrayList<>();
+        addFactors(this, factors);
+        addFactors(other, factors);
+        return new Product(factors);
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * Evaluates the expression with temporaries from a pool that only lives for
+     * this evaluation
+     *
+     * @param impl the implementation used for the products
+     * @return a new matrix holding the value of the expression
+     */
+    public int[][] evaluate(MatMath impl) {
+        return evaluate(impl, new MatrixBufferPool());
+    }
+
+    /**
+     * Evaluates the expression
+     *
+     * @param impl the implementation used for the products
+     * @param buffers where temporaries and the result are taken from, the result can be released back to it once the caller is done with it
+     * @return a matrix holding the value of the expression, never one of the operands
+     */
+    public int[][] evaluate(MatMath impl, MatrixBufferPool buffers) {
+        Evaluation evaluation = new Evaluation(impl, buffers);
+        evaluation.countUses(this);
+        int[][] value = evaluation.value(this);
+        if (this instanceof Leaf) { // never hand back an operand as the result
+            int[][] copy = buffers.acquire(rows, cols);
+            for (int i = 0; i < rows; i++) {
+                System.arraycopy(value[i], 0, copy[i], 0, cols);
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    /*
+     * the expressions this one reads directly
+     */
+    abstract List<Expr> operands();
+
+    /*
+     * computes the value of this expression once its operands are available
+     */
+    abstract int[][] compute(Evaluation evaluation);
+
+    private Expr sum(Expr other, int sign) {
+        if (rows != other.rows || cols != other.cols) {
+            throw new IllegalArgumentException("cannot add " + rows + "x" + cols + " and " + other.rows + "x" + other.cols);
+        }
+        List<Expr> terms = new ArrayList<>();
+        List<Integer> signs = new ArrayList<>();
+        addTerms(this, 1, terms, signs);
+        addTerms(other, sign, terms, signs);
+        return new Sum(terms, signs);
+    }
+
+    private static void addTerms(Expr e, int sign, List<Expr> terms, List<Integer> signs) {
+        if (e instanceof Sum) {
+            Sum s = (Sum) e;
+            for (int t = 0; t < s.terms.size(); t++) {
+                terms.add(s.terms.get(t));
+                signs.add(sign * s.signs[t]);
+            }
+        } else {
+            terms.add(e);
+            signs.add(sign);
+        }
+    }
+
+    private static void addFactors(Expr e, List<Expr> factors) {
+        if (e instanceof Product) {
+            factors.addAll(((Product) e).factors);
+        } else {
+            factors.add(e);
+        }
+    }
+
+    /*
+     * a matrix supplied by the caller
+     */
+    private static final class Leaf extends Expr {
+
+        private final int[][] value;
+
+        Leaf(int[][] A) {
+            super(A.length, A.length == 0 ? 0 : A[0].length);
+            value = A;
+        }
+
+        @Override
+        List<Expr> operands() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        int[][] compute(Evaluation evaluation) {
+            return value;
+        }
+    }
+
+    /*
+     * a sum of terms each added or subtracted, computed in one pass
+     */
+    private static final class Sum extends Expr {
+
+        private final List<Expr> terms;
+        private final int[] signs;
+
+        Sum(List<Expr> terms, List<Integer> signs) {
+            super(terms.get(0).getRows(), terms.get(0).getCols());
+            this.terms = terms;
+            this.signs = signs.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        @Override
+        List<Expr> operands() {
+            return terms;
+        }
+
+        @Override
+        int[][] compute(Evaluation evaluation) {
+            int[][][] values = new int[terms.size()][][];
+            for (int t = 0; t < values.length; t++) {
+                values[t] = evaluation.value(terms.get(t));
+            }
+            int[][] C = evaluation.buffers.acquire(getRows(), getCols());
+            IntStream.range(0, getRows()).parallel().forEach(i -> {
+                int[] rowC = C[i];
+                for (int t = 0; t < values.length; t++) {
+                    int[] row = values[t][i];
+                    if (signs[t] > 0) {
+                        for (int j = 0; j < rowC.length; j++) {
+                            rowC[j] += row[j];
+                        }
+                    } else {
+                        for (int j = 0; j < rowC.length; j++) {
+                            rowC[j] -= row[j];
+                        }
+                    }
+                }
+            });
+            for (Expr term : terms) {
+                evaluation.done(term);
+            }
+            return C;
+        }
+    }
+
+    /*
+     * a chain of products, multiplied in the order that needs the fewest
+     * scalar multiplications
+     */
+    private static final class Product extends Expr {
+
+        private final List<Expr> factors;
+
+        Product(List<Expr> factors) {
+            super(factors.get(0).getRows(), factors.get(factors.size() - 1).getCols());
+            this.factors = factors;
+        }
+
+        @Override
+        List<Expr> operands() {
+            return factors;
+        }
+
+        @Override
+        int[][] compute(Evaluation evaluation) {
+            int n = factors.size();
+            long[] dims = new long[n + 1];
+            for (int f = 0; f < n; f++) {
+                dims[f] = factors.get(f).getRows();
+            }
+            dims[n] = factors.get(n - 1).getCols();
+
+            // cost[i][j] is the cheapest way to multiply factors i..j, split[i][j] where to split them
+            long[][] cost = new long[n][n];
+            int[][] split = new int[n][n];
+            for (int length = 2; length <= n; length++) {
+                for (int i = 0; i + length - 1 < n; i++) {
+                    int j = i + length - 1;
+                    cost[i][j] = Long.MAX_VALUE;
+                    for (int k = i; k < j; k++) {
+                        long c = cost[i][k] + cost[k + 1][j] + dims[i] * dims[k + 1] * dims[j + 1];
+                        if (c < cost[i][j]) {
+                            cost[i][j] = c;
+                            split[i][j] = k;
+                        }
+                    }
+                }
+            }
+            return multiplyChain(evaluation, split, 0, n - 1);
+        }
+
+        private int[][] multiplyChain(Evaluation evaluation, int[][] split, int i, int j) {
+            if (i == j) {
+                return evaluation.value(factors.get(i));
+            }
+            int k = split[i][j];
+            if (i == k && evaluation.fusable(factors.get(i))) {
+                return multiplySum(evaluation, (Sum) factors.get(i), multiplyChain(evaluation, split, k + 1, j), k + 1, j);
+            }
+            int[][] left = multiplyChain(evaluation, split, i, k);
+            int[][] right = multiplyChain(evaluation, split, k + 1, j);
+            int[][] C = evaluation.buffers.acquire(factors.get(i).getRows(), factors.get(j).getCols());
+            evaluation.impl.multiply(left, right, C);
+            release(evaluation, i, k, left);
+            release(evaluation, k + 1, j, right);
+            return C;
+        }
+
+        /*
+         * (A + sign * B) * right on the tiled kernel, with the sum never
+         * computed. right is factors k..j
+         */
+        private int[][] multiplySum(Evaluation evaluation, Sum sum, int[][] right, int k, int j) {
+            Expr first = sum.terms.get(0), second = sum.terms.get(1);
+            int[][] A = evaluation.value(first);
+            int[][] B = evaluation.value(second);
+            int[][] C = evaluation.buffers.acquire(sum.getRows(), factors.get(j).getCols());
+            ((MatMathImplTiled) evaluation.impl).multiplySum(A, B, sum.signs[1], right, C);
+            evaluation.done(first);
+            evaluation.done(second);
+            release(evaluation, k, j, right);
+            return C;
+        }
+
+        /*
+         * a single factor is owned by the evaluation, a partial product is a
+         * temporary of this chain
+         */
+        private void release(Evaluation evaluation, int i, int j, int[][] value) {
+            if (i == j) {
+                evaluation.done(factors.get(i));
+            } else {
+                evaluation.buffers.release(value);
+            }
+        }
+    }
+
+    /*
+     * the state of one call to evaluate: counts how many times each node is
+     * read so shared nodes are computed once and their buffers are released
+     * after the last read
+     */
+    private static final class Evaluation {
+
+        final MatMath impl;
+        final MatrixBufferPool buffers;
+        private final Map<Expr, Integer> uses = new IdentityHashMap<>();
+        private final Map<Expr, int[][]> values = new IdentityHashMap<>();
+
+        Evaluation(MatMath impl, MatrixBufferPool buffers) {
+            this.impl = impl;
+            this.buffers = buffers;
+        }
+
+        void countUses(Expr e) {
+            Integer count = uses.get(e);
+            uses.put(e, count == null ? 1 : count + 1);
+            if (count == null) {
+                for (Expr operand : e.operands()) {
+                    countUses(operand);
+                }
+            }
+        }
+
+        /*
+         * whether e is a sum of two terms read only by one product, which the
+         * tiled kernel can multiply without computing it
+         */
+        boolean fusable(Expr e) {
+            if (!(impl instanceof MatMathImplTiled) || !(e instanceof Sum) || uses.get(e) != 1 || values.containsKey(e)) {
+                return false;
+            }
+            Sum sum = (Sum) e;
+            return sum.terms.size() == 2 && sum.signs[0] == 1;
+        }
+
+        int[][] value(Expr e) {
+            int[][] value = values.get(e);
+            if (value == null) {
+                value = e.compute(this);
+                values.put(e, value);
+            }
+            return value;
+        }
+
+        /*
+         * called by every reader of e once it is finished with the value
+         */
+        void done(Expr e) {
+            int remaining = uses.get(e) - 1;
+            uses.put(e, remaining);
+            if (remaining == 0 && !(e instanceof Leaf)) {
+                buffers.release(values.remove(e));
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package matrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Keeps the product C = A * B up to date while rows, columns or rank one
+ * deltas of A and B change, without multiplying them again. Every change to A
+ * or B changes C by an outer product x * y, which is worked out in O(n^2) as
+ * soon as the change is made, from A and B as they are at that moment. The
+ * outer products are queued and added to C the next time it is read, all of
+ * them in one pass that splits the rows of C across a fork/join pool, so many
+ * changes arriving together cost a single parallel sweep over C. A new column
+ * of B only moves one column of C, so it is written there in O(rows) rather
+ * than swept across every column as an outer product. A and B are
+ * copied in, changing the arrays passed to the constructor has no effect
+ *
+ * @author Peter Swantek
+ *
+ */
+public class IncrementalProduct {
+
+    private final ForkJoinPool pool;
+    private final int[][] A, B, C;
+    private final int rows, inner, cols;
+    private final List<Delta> pending = new ArrayList<>();
+
+    /**
+     * Multiplies A and B once on the common fork/join pool
+     *
+     * @param A the first matrix of the product
+     * @param B the second matrix of the product
+     */
+    public IncrementalProduct(int[][] A, int[][] B) {
+        this(A, B, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Multiplies A and B once
+     *
+     * @param A the first matrix of the product
+     * @param B the second matrix of the product
+     * @param pool the fork/join pool to multiply and patch on
+     */
+    public IncrementalProduct(int[][] A, int[][] B, ForkJoinPool pool) {
+        this.rows = A.length;
+        this.inner = B.length;
+        this.cols = inner == 0 ? 0 : B[0].length;
+        if (rows > 0 && A[0].length != inner) {
+            throw new IllegalArgumentException("cannot multiply " + rows + "x" + A[0].length + " by " + inner + "x" + cols);
+        }
+        this.pool = pool;
+        this.A = copy(A);
+        this.B = copy(B);
+        this.C = new int[rows][cols];
+        new MatMathImplTiled(pool, MatMathImplTiled.DEFAULT_TILE_SIZE).multiply(this.A, this.B, C);
+    }
+
+    /**
+     * Replaces row i of A, which changes only row i of C
+     *
+     * @param i the row to replace
+     * @param row the new values
+     */
+    public synchronized void setRowOfA(int i, int[] row) {
+        checkLength(row, inner);
+        int[] change = new int[inner];
+        for (int k = 0; k < inner; k++) {
+            change[k] = row[k] - A[i][k];
+            A[i][k] = row[k];
+        }
+        pending.add(new Delta(i, null, times(change, B)));
+    }
+
+    /**
+     * Replaces column k of A, C changes by the column change times row k of B
+     *
+     * @param k the column to replace
+     * @param column the new values
+     */
+    public synchronized void setColumnOfA(int k, int[] column) {
+        checkLength(column, rows);
+        int[] change = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            change[i] = column[i] - A[i][k];
+            A[i][k] = column[i];
+        }
+        pending.add(new Delta(-1, change, B[k].clone()));
+    }
+
+    /**
+     * Replaces row k of B, C changes by column k of A times the row change
+     *
+     * @param k the row to replace
+     * @param row the new values
+     */
+    public synchronized void setRowOfB(int k, int[] row) {
+        checkLength(row, cols);
+        int[] change = new int[cols];
+        for (int j = 0; j < cols; j++) {
+            change[j] = row[j] - B[k][j];
+            B[k][j] = row[j];
+        }
+        int[] column = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            column[i] = A[i][k];
+        }
+        pending.add(new Delta(-1, column, change));
+    }
+
+    /**
+     * Replaces column j of B, which changes only column j of C
+     *
+     * @param j the column to replace
+     * @param column the new values
+     */
+    public synchronized void setColumnOfB(int j, int[] column) {
+        checkLength(column, inner);
+        int[] change = new int[inner];
+        for (int k = 0; k < inner; k++) {
+            change[k] = column[k] - B[k][j];
+            B[k][j] = column[k];
+        }
+        pending.add(new Delta(-1, j, times(A, change), null)); // only column j of C moves, by A * change
+    }
+
+    /**
+     * A += u * v, so C changes by u * (v * B)
+     *
+     * @param u a column of A's height
+     * @param v a row of A's width
+     */
+    public synchronized void addRankOneToA(int[] u, int[] v) {
+        checkLength(u, rows);
+        checkLength(v, inner);
+        for (int i = 0; i < rows; i++) {
+            for (int k = 0; k < inner; k++) {
+                A[i][k] += u[i] * v[k];
+            }
+        }
+        pending.add(new Delta(-1, u.clone(), times(v, B))); // v * B uses the old B, which is still current
+    }
+
+    /**
+     * B += u * v, so C changes by (A * u) * v
+     *
+     * @param u a column of B's height
+     * @param v a row of B's width
+     */
+    public synchronized void addRankOneToB(int[] u, int[] v) {
+        checkLength(u, inner);
+        checkLength(v, cols);
+        pending.add(new Delta(-1, times(A, u), v.clone()));
+        for (int k = 0; k < inner; k++) {
+            for (int j = 0; j < cols; j++) {
+                B[k][j] += u[k] * v[j];
+            }
+        }
+    }
+
+    /**
+     * @param i the row
+     * @param j the column
+     * @return element (i, j) of the current product
+     */
+    public synchronized int get(int i, int j) {
+        flush();
+        return C[i][j];
+    }
+
+    /**
+     * @return a copy of the current product
+     */
+    public synchronized int[][] getProduct() {
+        flush();
+        return copy(C);
+    }
+
+    /**
+     * @return a copy of the current A
+     */
+    public synchronized int[][] getA() {
+        return copy(A);
+    }
+
+    /**
+     * @return a copy of the current B
+     */
+    public synchronized int[][] getB() {
+        return copy(B);
+    }
+
+    /**
+     * @return the number of changes not yet added to the product
+     */
+    public synchronized int getPendingChanges() {
+        return pending.size();
+    }
+
+    /**
+     * Adds every queued change to the product in one parallel pass over its
+     * rows
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Delta[] deltas = pending.toArray(new Delta[0]);
+        pending.clear();
+        pool.submit(() -> IntStream.range(0, rows).parallel().forEach(i -> {
+            int[] rowC = C[i];
+            for (Delta delta : deltas) {
+                int x = delta.x(i);
+                if (x == 0) {
+                    continue;
+                }
+                if (delta.column >= 0) {
+                    rowC[delta.column] += x;
+                    continue;
+                }
+                int[] y = delta.y;
+                for (int j = 0; j < cols; j++) {
+                    rowC[j] += x * y[j];
+                }
+            }
+        })).join();
+    }
+
+    /*
+     * row * M
+     */
+    private static int[] times(int[] row, int[][] M) {
+        int[] result = new int[M.length == 0 ? 0 : M[0].length];
+        for (int k = 0; k < M.length; k++) {
+            int value = row[k];
+            if (value == 0) {
+                continue;
+            }
+            int[] rowM = M[k];
+            for (int j = 0; j < result.length; j++) {
+                result[j] += value * rowM[j];
+            }
+        }
+        return result;
+    }
+
+    /*
+     * M * column
+     */
+    private static int[] times(int[][] M, int[] column) {
+        int[] result = new int[M.length];
+        for (int i = 0; i < M.length; i++) {
+            int sum = 0;
+            for (int k = 0; k < column.length; k++) {
+                sum += M[i][k] * column[k];
+            }
+            result[i] = sum;
+        }
+        return result;
+    }
+
+    private static void checkLength(int[] values, int length) {
+        if (values.length != length) {
+            throw new IllegalArgumentException("expected " + length + " values, got " + values.length);
+        }
+    }
+
+    private static int[][] copy(int[][] M) {
+        int[][] copy = new int[M.length][];
+        for (int i = 0; i < M.length; i++) {
+            copy[i] = M[i].clone();
+        }
+        return copy;
+    }
+
+    /*
+     * C += x * y, where x is either a whole column or the unit column with a
+     * one in row, and y is either a whole row or the unit row with a one in
+     * column, which makes the change a single column of C
+     */
+    private static final class Delta {
+
+        final int row, column;
+        final int[] x;
+        final int[] y;
+
+        Delta(int row, int[] x, int[] y) {
+            this(row, -1, x, y);
+        }
+
+        Delta(int row, int column, int[] x, int[] y) {
+            this.row = row;
+            this.column = column;
+            this.x = x;
+            this.y = y;
+        }
+
+        int x(int i) {
+            if (x == null) {
+                return i == row ? 1 : 0;
+            }
+            return x[i];
+        }
+    }
+}
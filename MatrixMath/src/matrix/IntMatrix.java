@@ -0,0 +1,156 @@
+package matrix;
+
+/**
+ * A dense matrix of ints stored row-major in one contiguous array. Element
+ * (i, j) lives at data[offset + i * stride + j], so a matrix can also be a view
+ * of a block inside a larger matrix that shares the same backing array
+ *
+ * @author Peter Swantek
+ *
+ */
+public final class IntMatrix {
+
+    private final int[] data;
+    private final int offset;
+    private final int rows;
+    private final int cols;
+    private final int stride;
+
+    /**
+     * Creates a zero filled matrix with its own backing array
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     */
+    public IntMatrix(int rows, int cols) {
+        this(new int[rows * cols], 0, rows, cols, cols);
+    }
+
+    /**
+     * Creates a matrix over an existing array without copying it
+     *
+     * @param data the backing array
+     * @param offset index in data of element (0, 0)
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param stride distance in data between the starts of two consecutive rows
+     */
+    public IntMatrix(int[] data, int offset, int rows, int cols, int stride) {
+        if (rows < 0 || cols < 0 || stride < cols || offset < 0) {
+            throw new IllegalArgumentException("bad shape: " + rows + "x" + cols + " stride " + stride + " offset " + offset);
+        }
+        if (rows > 0 && cols > 0 && offset + (long) (rows - 1) * stride + cols > data.length) {
+            throw new IllegalArgumentException("backing array too small for " + rows + "x" + cols + " stride " + stride);
+        }
+        this.data = data;
+        this.offset = offset;
+        this.rows = rows;
+        this.cols = cols;
+        this.stride = stride;
+    }
+
+    /**
+     * Copies a jagged array into a new flat matrix
+     *
+     * @param A the matrix to copy, every row must have the same length
+     * @return a flat copy of A
+     */
+    public static IntMatrix fromArray(int[][] A) {
+        int cols = A.length == 0 ? 0 : A[0].length;
+        IntMatrix M = new IntMatrix(A.length, cols);
+        for (int i = 0; i < A.length; i++) {
+            System.arraycopy(A[i], 0, M.data, i * cols, cols);
+        }
+        return M;
+    }
+
+    /**
+     * @return a jagged array copy of this matrix
+     */
+    public int[][] toArray() {
+        int[][] A = new int[rows][cols];
+        copyTo(A);
+        return A;
+    }
+
+    /**
+     * Copies this matrix into an existing jagged array of the same shape
+     *
+     * @param A the array to copy into
+     */
+    public void copyTo(int[][] A) {
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(data, offset + i * stride, A[i], 0, cols);
+        }
+    }
+
+    /**
+     * Overwrites this matrix with the contents of a jagged array of the same
+     * shape
+     *
+     * @param A the array to copy from
+     */
+    public void copyFrom(int[][] A) {
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(A[i], 0, data, offset + i * stride, cols);
+        }
+    }
+
+    /**
+     * Creates a view of a block of this matrix that shares the backing array
+     *
+     * @param row first row of the block
+     * @param col first column of the block
+     * @param numRows number of rows in the block
+     * @param numCols number of columns in the block
+     * @return a view of the block
+     */
+    public IntMatrix subMatrix(int row, int col, int numRows, int numCols) {
+        if (row < 0 || col < 0 || row + numRows > rows || col + numCols > cols) {
+            throw new IndexOutOfBoundsException("block " + numRows + "x" + numCols + " at (" + row + ", " + col + ") outside " + rows + "x" + cols);
+        }
+        return new IntMatrix(data, offset + row * stride + col, numRows, numCols, stride);
+    }
+
+    /**
+     * @return true if the rows are packed one after another with no gaps
+     */
+    public boolean isContiguous() {
+        return stride == cols || rows <= 1;
+    }
+
+    public int get(int i, int j) {
+        return data[index(i, j)];
+    }
+
+    public void set(int i, int j, int value) {
+        data[index(i, j)] = value;
+    }
+
+    /**
+     * @return index in the backing array of element (i, j)
+     */
+    public int index(int i, int j) {
+        return offset + i * stride + j;
+    }
+
+    public int[] getData() {
+        return data;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+}
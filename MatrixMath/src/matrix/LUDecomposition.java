@@ -0,0 +1,205 @@
+package matrix;
+
+/**
+ * The LU decomposition PA = LU of a square double matrix, as computed by
+ * MatMathLU. L (unit lower triangular) and U (upper triangular) are packed
+ * into one n x n matrix, and P is kept as the row of A that each row of LU
+ * came from. Solving with many right hand sides splits their columns into
+ * bands that run in parallel
+ *
+ * @author Peter Swantek
+ *
+ */
+public final class LUDecomposition {
+
+    private final Blas blas;
+    private final int n;
+    private final double[] lu; // row major, stride n
+    private final int[] permutation;
+    private final int sign; // determinant of P
+    private final boolean singular;
+
+    LUDecomposition(Blas blas, int n, double[] lu, int[] permutation, int sign, boolean singular) {
+        this.blas = blas;
+        this.n = n;
+        this.lu = lu;
+        this.permutation = permutation;
+        this.sign = sign;
+        this.singular = singular;
+    }
+
+    public int getSize() {
+        return n;
+    }
+
+    /**
+     * @return true if a pivot was exactly zero, then solve and inverse are not possible
+     */
+    public boolean isSingular() {
+        return singular;
+    }
+
+    /**
+     * @return the determinant of the decomposed matrix
+     */
+    public double det() {
+        double det = sign;
+        for (int i = 0; i < n; i++) {
+            det *= lu[i * n + i];
+        }
+        return det;
+    }
+
+    /**
+     * @return a copy of the row permutation, row i of LU is row getPermutation()[i] of A
+     */
+    public int[] getPermutation() {
+        return permutation.clone();
+    }
+
+    /**
+     * @return the unit lower triangular factor
+     */
+    public double[][] getL() {
+        double[][] L = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(lu, i * n, L[i], 0, i);
+            L[i][i] = 1;
+        }
+        return L;
+    }
+
+    /**
+     * @return the upper triangular factor
+     */
+    public double[][] getU() {
+        double[][] U = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(lu, i * n + i, U[i], i, n - i);
+        }
+        return U;
+    }
+
+    /**
+     * Solves Ax = b
+     *
+     * @param b the right hand side
+     * @return x
+     * @throws ArithmeticException if the matrix is singular
+     */
+    public double[] solve(double[] b) {
+        if (b.length != n) {
+            throw new IllegalArgumentException("expected " + n + " values, got " + b.length);
+        }
+        checkSingular();
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = b[permutation[i]];
+        }
+        for (int i = 0; i < n; i++) { // Ly = Pb
+            int row = i * n;
+            double sum = x[i];
+            for (int k = 0; k < i; k++) {
+                sum -= lu[row + k] * x[k];
+            }
+            x[i] = sum;
+        }
+        for (int i = n - 1; i >= 0; i--) { // Ux = y
+            int row = i * n;
+            double sum = x[i];
+            for (int k = i + 1; k < n; k++) {
+                sum -= lu[row + k] * x[k];
+            }
+            x[i] = sum / lu[row + i];
+        }
+        return x;
+    }
+
+    /**
+     * Solves AX = B for many right hand sides at once
+     *
+     * @param B the right hand sides, one per column
+     * @return X
+     * @throws ArithmeticException if the matrix is singular
+     */
+    public double[][] solve(double[][] B) {
+        if (B.length != n) {
+            throw new IllegalArgumentException("expected " + n + " rows, got " + B.length);
+        }
+        checkSingular();
+        int cols = n == 0 ? 0 : B[0].length;
+        double[] x = new double[n * cols];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(B[permutation[i]], 0, x, i * cols, cols);
+        }
+        solveInPlace(x, cols);
+        double[][] X = new double[n][cols];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, i * cols, X[i], 0, cols);
+        }
+        return X;
+    }
+
+    /**
+     * @return the inverse of the decomposed matrix
+     * @throws ArithmeticException if the matrix is singular
+     */
+    public double[][] inverse() {
+        checkSingular();
+        double[] x = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            x[i * n + permutation[i]] = 1; // P times the identity
+        }
+        solveInPlace(x, n);
+        double[][] inverse = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, i * n, inverse[i], 0, n);
+        }
+        return inverse;
+    }
+
+    /*
+     * overwrites the n x cols right hand sides in x with the solutions, each
+     * band of columns is substituted forwards then backwards by row operations
+     */
+    private void solveInPlace(double[] x, int cols) {
+        blas.invoke(cols, (long) n * n, (colLo, colHi) -> {
+            for (int i = 0; i < n; i++) {
+                int rowX = i * cols, row = i * n;
+                for (int k = 0; k < i; k++) {
+                    double l = lu[row + k];
+                    if (l == 0) {
+                        continue;
+                    }
+                    int rowK = k * cols;
+                    for (int j = colLo; j < colHi; j++) {
+                        x[rowX + j] -= l * x[rowK + j];
+                    }
+                }
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                int rowX = i * cols, row = i * n;
+                for (int k = i + 1; k < n; k++) {
+                    double u = lu[row + k];
+                    if (u == 0) {
+                        continue;
+                    }
+                    int rowK = k * cols;
+                    for (int j = colLo; j < colHi; j++) {
+                        x[rowX + j] -= u * x[rowK + j];
+                    }
+                }
+                double pivot = lu[row + i];
+                for (int j = colLo; j < colHi; j++) {
+                    x[rowX + j] /= pivot;
+                }
+            }
+        });
+    }
+
+    private void checkSingular() {
+        if (singular) {
+            throw new ArithmeticException("matrix is singular");
+        }
+    }
+}
@@ -42,8 +42,10 @@ public class MainClass {
         // initialize the different implementations of MatMath
         MatMath threadImpl = new MatMathImplThreads();
         MatMath streamsImpl = new MatMathImplStreams();
-        MatMath poolImpl = new MatMathImplPools();
-        MatMath streamPoolImpl = new MatMathImplPoolsStreams();
+        MatMathImplPools poolImpl = new MatMathImplPools();
+        MatMathImplPoolsStreams streamPoolImpl = new MatMathImplPoolsStreams();
+        MatMath tiledImpl = new MatMathImplTiled();
+        MatMath strassenImpl = new MatMathImplStrassen();
 
         // code to initialize A,B,C,D
         int[][] A = { { 1, 2, 3 }, { 4, 5, 6 }, { 7, 8, 9 } };
@@ -73,5 +75,17 @@ public class MainClass {
         runTest(streamsImpl, A, B, C, D, r, s, t, "STREAMS IMPLEMENTATION");
         runTest(poolImpl, A, B, C, D, r, s, t, "THREAD POOLS IMPLEMENTATION");
         runTest(streamPoolImpl, A, B, C, D, r, s, t, "STREAMS WITH THREAD POOLS IMPLEMENTATION");
+        runTest(tiledImpl, A, B, C, D, r, s, t, "TILED FORK/JOIN IMPLEMENTATION");
+        runTest(strassenImpl, A, B, C, D, r, s, t, "STRASSEN-WINOGRAD IMPLEMENTATION");
+
+        // a chain of operations built as one lazy expression and evaluated at
+        // once (C is 2x3 so it can't be used in a checked product)
+        System.out.println("Result of ((A+B) * B) * D as a lazy expression:");
+        tiledImpl.print(Expr.of(A).plus(B).times(B).times(D).evaluate(tiledImpl));
+        System.out.println();
+
+        // shut down the thread pools owned by the pool implementations
+        poolImpl.close();
+        streamPoolImpl.close();
     }
 }
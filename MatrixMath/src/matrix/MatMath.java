@@ -8,4 +8,60 @@ public interface MatMath {
 
     void print(int[][] A); // pretty print A
 
+    // flat row-major versions of the above, by default these go through jagged
+    // array copies so implementations should override them with a real flat path
+
+    default void multiply(IntMatrix A, IntMatrix B, IntMatrix C) { // multiply A and B into C
+        int[][] result = new int[C.getRows()][C.getCols()];
+        multiply(A.toArray(), B.toArray(), result);
+        C.copyFrom(result);
+    }
+
+    default void add(IntMatrix A, IntMatrix B, IntMatrix C) { // add A and B into C
+        int[][] result = new int[C.getRows()][C.getCols()];
+        add(A.toArray(), B.toArray(), result);
+        C.copyFrom(result);
+    }
+
+    default void print(IntMatrix A) { // pretty print A
+        print(A.toArray());
+    }
+
+    // long and double versions. The defaults are copy shims: A and B are copied
+    // to jagged arrays, the generated MatMathLong or MatMathDouble kernel runs
+    // on the common pool, and the result is copied back into C, three copies a
+    // call. Implementations that care about the flat layout override them
+
+    default void multiply(LongMatrix A, LongMatrix B, LongMatrix C) { // multiply A and B into C
+        long[][] result = new long[C.getRows()][C.getCols()];
+        PrimitiveKernels.LONG.multiply(A.toArray(), B.toArray(), result);
+        C.copyFrom(result);
+    }
+
+    default void add(LongMatrix A, LongMatrix B, LongMatrix C) { // add A and B into C
+        long[][] result = new long[C.getRows()][C.getCols()];
+        PrimitiveKernels.LONG.add(A.toArray(), B.toArray(), result);
+        C.copyFrom(result);
+    }
+
+    default void print(LongMatrix A) { // pretty print A
+        PrimitiveKernels.LONG.print(A.toArray());
+    }
+
+    default void multiply(DoubleMatrix A, DoubleMatrix B, DoubleMatrix C) { // multiply A and B into C
+        double[][] result = new double[C.getRows()][C.getCols()];
+        PrimitiveKernels.DOUBLE.multiply(A.toArray(), B.toArray(), result);
+        C.copyFrom(result);
+    }
+
+    default void add(DoubleMatrix A, DoubleMatrix B, DoubleMatrix C) { // add A and B into C
+        double[][] result = new double[C.getRows()][C.getCols()];
+        PrimitiveKernels.DOUBLE.add(A.toArray(), B.toArray(), result);
+        C.copyFrom(result);
+    }
+
+    default void print(DoubleMatrix A) { // pretty print A
+        PrimitiveKernels.DOUBLE.print(A.toArray());
+    }
+
 }
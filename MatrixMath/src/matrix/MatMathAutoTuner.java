@@ -0,0 +1,395 @@
+package matrix;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides an implementation of the MatMath interface that sends every call to
+ * whichever of a set of candidate implementations was fastest for calls of
+ * that kind on this machine. Calls are grouped into buckets by operation,
+ * shape (square, tall or wide) and size rounded up to a power of two. The
+ * table of bucket to implementation comes from a short calibration run or from
+ * a profile saved earlier, and can be saved per host. Buckets that were never
+ * calibrated use the closest smaller bucket, or the default implementation.
+ * A tuner over the standard candidates owns them and shuts their threads down
+ * when it is closed
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathAutoTuner implements MatMath, AutoCloseable {
+
+    private static final int MIN_SIZE = 8;
+    private static final int MAX_THREAD_SIZE = 64; // the thread per cell implementation is never worth timing beyond this
+    private static final String[] SHAPES = { "square", "tall", "wide" };
+
+    private final Map<String, MatMath> candidates;
+    private final String defaultName;
+    private final Map<String, String> decisions = Collections.synchronizedMap(new TreeMap<>());
+    private final ForkJoinPool ownedPool; // the single thread pool of the standard candidates, null if the candidates were passed in
+
+    /**
+     * Creates a tuner over the standard implementations, with the fork/join
+     * ones on one thread and on every core. Closing the tuner closes them
+     */
+    public MatMathAutoTuner() {
+        this(new ForkJoinPool(1));
+    }
+
+    private MatMathAutoTuner(ForkJoinPool single) {
+        this(standardCandidates(single), "tiled-" + Runtime.getRuntime().availableProcessors(), single);
+    }
+
+    /**
+     * Creates a tuner
+     *
+     * @param candidates the implementations to choose between, by name
+     * @param defaultName the candidate used for buckets with no decision
+     */
+    public MatMathAutoTuner(Map<String, MatMath> candidates, String defaultName) {
+        this(candidates, defaultName, null);
+    }
+
+    private MatMathAutoTuner(Map<String, MatMath> candidates, String defaultName, ForkJoinPool ownedPool) {
+        if (!candidates.containsKey(defaultName)) {
+            throw new IllegalArgumentException("default " + defaultName + " is not one of the candidates " + candidates.keySet());
+        }
+        this.candidates = new LinkedHashMap<>(candidates);
+        this.defaultName = defaultName;
+        this.ownedPool = ownedPool;
+    }
+
+    /**
+     * The caller owns the candidates: the thread pool one should be closed,
+     * and the single fork/join thread exits on its own once it is idle
+     *
+     * @return the standard candidates, named after the implementation and the number of threads they use
+     */
+    public static Map<String, MatMath> standardCandidates() {
+        return standardCandidates(new ForkJoinPool(1));
+    }
+
+    private static Map<String, MatMath> standardCandidates(ForkJoinPool single) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        Map<String, MatMath> candidates = new LinkedHashMap<>();
+        candidates.put("threads", new MatMathImplThreads());
+        candidates.put("streams", new MatMathImplStreams());
+        candidates.put("pools-" + cores, new MatMathImplPools(cores));
+        candidates.put("tiled-1", new MatMathImplTiled(single, MatMathImplTiled.DEFAULT_TILE_SIZE));
+        candidates.put("tiled-" + cores, new MatMathImplTiled());
+        candidates.put("strassen-" + cores, new MatMathImplStrassen());
+        return candidates;
+    }
+
+    /**
+     * @return where the profile of this host is saved by default, ~/.matmath/autotune-&lt;host&gt;.properties
+     */
+    public static Path defaultProfile() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return Paths.get(System.getProperty("user.home"), ".matmath", "autotune-" + host + ".properties");
+    }
+
+    /**
+     * Times every candidate on every bucket up to the given size. Candidates
+     * that were already much slower than the best one in a smaller bucket of
+     * the same kind are not timed on the larger ones
+     *
+     * @param maxSize the largest size to calibrate, rounded up to a power of two
+     */
+    public void calibrate(int maxSize) {
+        Random random = new Random(42);
+        for (String operation : new String[] { "multiply", "add" }) {
+            for (String shape : SHAPES) {
+                Map<String, Long> previous = new LinkedHashMap<>();
+                for (int bucket = MIN_SIZE; bucket <= roundUp(maxSize); bucket *= 2) {
+                    int[] dims = dimensions(operation, shape, bucket);
+                    boolean multiply = operation.equals("multiply");
+                    int[][] A = multiply ? random(dims[0], dims[1], random) : random(dims[0], dims[2], random);
+                    int[][] B = multiply ? random(dims[1], dims[2], random) : random(dims[0], dims[2], random);
+                    int[][] C = new int[dims[0]][dims[2]];
+
+                    long best = Long.MAX_VALUE;
+                    String bestName = defaultName;
+                    Map<String, Long> times = new LinkedHashMap<>();
+                    for (Map.Entry<String, MatMath> candidate : candidates.entrySet()) {
+                        String name = candidate.getKey();
+                        if (!worthTiming(name, bucket, previous)) {
+                            continue;
+                        }
+                        long time = time(candidate.getValue(), operation, A, B, C);
+                        times.put(name, time);
+                        if (time < best) {
+                            best = time;
+                            bestName = name;
+                        }
+                    }
+                    decisions.put(key(operation, shapeOf(dims[0], dims[2]), bucket), bestName);
+                    previous = times;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the bucket to implementation table, keys look like multiply/square/256
+     */
+    public Map<String, String> getDecisions() {
+        synchronized (decisions) {
+            return Collections.unmodifiableMap(new TreeMap<>(decisions));
+        }
+    }
+
+    /**
+     * Saves the decision table as a properties file, creating its directory
+     *
+     * @param profile the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path profile) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(getDecisions());
+        if (profile.getParent() != null) {
+            Files.createDirectories(profile.getParent());
+        }
+        try (Writer out = Files.newBufferedWriter(profile)) {
+            properties.store(out, "MatMathAutoTuner decisions, " + Runtime.getRuntime().availableProcessors() + " cores");
+        }
+    }
+
+    /**
+     * Replaces the decision table with one saved earlier. Entries naming
+     * implementations that are not candidates of this tuner are ignored
+     *
+     * @param profile the file to read
+     * @throws IOException if the file cannot be read
+     */
+    public void load(Path profile) throws IOException {
+        Properties properties = new Properties();
+        try (Reader in = Files.newBufferedReader(profile)) {
+            properties.load(in);
+        }
+        synchronized (decisions) {
+            decisions.clear();
+            for (String bucket : properties.stringPropertyNames()) {
+                String name = properties.getProperty(bucket);
+                if (candidates.containsKey(name)) {
+                    decisions.put(bucket, name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the profile if it exists, otherwise calibrates and saves it
+     *
+     * @param profile the file to read or write
+     * @param maxSize the largest size to calibrate if there is no profile
+     * @throws IOException if the profile cannot be read or written
+     */
+    public void loadOrCalibrate(Path profile, int maxSize) throws IOException {
+        if (Files.exists(profile)) {
+            load(profile);
+        } else {
+            calibrate(maxSize);
+            save(profile);
+        }
+    }
+
+    /**
+     * Multiplies 2 matrices with the implementation chosen for their shape
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(int[][] A, int[][] B, int[][] C) {
+        int rows = A.length;
+        int inner = B.length;
+        int cols = inner == 0 ? 0 : B[0].length;
+        clear(C); // some candidates accumulate into C
+        choose("multiply", rows, cols, characteristicSize("multiply", rows, inner, cols)).multiply(A, B, C);
+    }
+
+    /**
+     * Adds two matrices together with the implementation chosen for their
+     * shape
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(int[][] A, int[][] B, int[][] C) {
+        int rows = A.length;
+        int cols = rows == 0 ? 0 : A[0].length;
+        choose("add", rows, cols, characteristicSize("add", rows, cols, cols)).add(A, B, C);
+    }
+
+    /**
+     * Print out a matrix
+     *
+     * @param A the matrix to be printed
+     */
+    @Override
+    public void print(int[][] A) {
+        for (int[] subarray : A) {
+            System.out.println(Arrays.toString(subarray));
+        }
+    }
+
+    /**
+     * @param operation multiply or add
+     * @param rows rows of the result
+     * @param cols columns of the result
+     * @param size the characteristic size of the call, the cube root of the work for a product or the square root of the element count for a sum
+     * @return the name of the implementation calls of that kind are sent to
+     */
+    public String decide(String operation, int rows, int cols, int size) {
+        String shape = shapeOf(rows, cols);
+        for (int bucket = roundUp(size); bucket >= MIN_SIZE; bucket /= 2) {
+            String name = decisions.get(key(operation, shape, bucket));
+            if (name != null) {
+                return name;
+            }
+        }
+        return defaultName;
+    }
+
+    /**
+     * Closes the standard candidates if this tuner created them, waiting for
+     * their threads, candidates that were passed in are left alone
+     */
+    @Override
+    public void close() {
+        if (ownedPool == null) {
+            return;
+        }
+        for (MatMath candidate : candidates.values()) {
+            if (candidate instanceof MatMathImplPools) {
+                ((MatMathImplPools) candidate).close();
+            }
+        }
+        ownedPool.shutdown();
+        try {
+            ownedPool.awaitTermination(2, TimeUnit.MINUTES); // wait 2 minutes to shut down
+        } catch (InterruptedException e) {
+            ownedPool.shutdownNow(); // force shut down if we get interrupted
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private MatMath choose(String operation, int rows, int cols, int size) {
+        return candidates.get(decide(operation, rows, cols, size));
+    }
+
+    private boolean worthTiming(String name, int size, Map<String, Long> previous) {
+        if (name.equals("threads") && size > MAX_THREAD_SIZE) {
+            return false;
+        }
+        if (previous.isEmpty()) {
+            return true;
+        }
+        Long time = previous.get(name);
+        long best = Collections.min(previous.values());
+        return time != null && time <= 10 * best;
+    }
+
+    private static long time(MatMath impl, String operation, int[][] A, int[][] B, int[][] C) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 4; run++) { // the first run is a warm up
+            clear(C);
+            long start = System.nanoTime();
+            if (operation.equals("multiply")) {
+                impl.multiply(A, B, C);
+            } else {
+                impl.add(A, B, C);
+            }
+            long time = System.nanoTime() - start;
+            if (run > 0) {
+                best = Math.min(best, time);
+            }
+        }
+        return best;
+    }
+
+    /*
+     * rows, inner and columns of a calibration call of the given shape whose
+     * characteristic size is exactly the bucket, so every bucket gets its own
+     * call. A tall product is 16 * bucket x bucket / 4 x bucket / 4 and a tall
+     * sum 4 * bucket x bucket / 4, wide ones are the same turned sideways
+     */
+    private static int[] dimensions(String operation, String shape, int bucket) {
+        int small = bucket / 4;
+        int large = operation.equals("multiply") ? 16 * bucket : 4 * bucket;
+        switch (shape) {
+        case "tall":
+            return new int[] { large, small, small };
+        case "wide":
+            return new int[] { small, small, large };
+        default:
+            return new int[] { bucket, bucket, bucket };
+        }
+    }
+
+    private static String shapeOf(int rows, int cols) {
+        return rows >= 4 * cols ? "tall" : cols >= 4 * rows ? "wide" : "square";
+    }
+
+    /*
+     * the side of a square call doing the same amount of work
+     */
+    private static int characteristicSize(String operation, int rows, int inner, int cols) {
+        if (operation.equals("multiply")) {
+            return (int) Math.round(Math.cbrt((double) rows * inner * cols));
+        }
+        return (int) Math.round(Math.sqrt((double) rows * cols));
+    }
+
+    private static String key(String operation, String shape, int size) {
+        return operation + "/" + shape + "/" + size;
+    }
+
+    private static int roundUp(int size) {
+        int bucket = MIN_SIZE;
+        while (bucket < size) {
+            bucket *= 2;
+        }
+        return bucket;
+    }
+
+    private static void clear(int[][] C) {
+        for (int[] row : C) {
+            Arrays.fill(row, 0);
+        }
+    }
+
+    private static int[][] random(int rows, int cols, Random random) {
+        int[][] M = new int[rows][cols];
+        for (int[] row : M) {
+            for (int j = 0; j < cols; j++) {
+                row[j] = random.nextInt(100);
+            }
+        }
+        return M;
+    }
+}
@@ -0,0 +1,216 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Multiplies large batches of small matrices. Calling a MatMath once per
+ * matrix pays the cost of scheduling a parallel job for a few hundred
+ * multiplications, so instead the batch itself is split across the fork/join
+ * pool and every item is multiplied sequentially by the thread that owns it.
+ * 4x4 products use a fully unrolled kernel, other sizes a loop in i-k-j order.
+ * Nothing is allocated per matrix. The batch can be given as arrays of
+ * matrices or as flat arrays holding the matrices one after another
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathBatch {
+
+    private static final int LEAF_WORK = 1 << 15; // multiply-adds each leaf task does before it stops splitting
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a batch multiplier that uses the common fork/join pool
+     */
+    public MatMathBatch() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a batch multiplier
+     *
+     * @param pool the fork/join pool to split the batch on
+     */
+    public MatMathBatch(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Multiplies every A[n] by B[n] and stores the product in C[n]. The items
+     * may have different sizes
+     *
+     * @param A the first matrix of each product
+     * @param B the second matrix of each product
+     * @param C the matrices that will store the products, overwritten
+     */
+    public void multiplyBatch(int[][][] A, int[][][] B, int[][][] C) {
+        if (A.length != B.length || A.length != C.length) {
+            throw new IllegalArgumentException("batches differ in length: " + A.length + ", " + B.length + " and " + C.length);
+        }
+        if (C.length == 0) {
+            return;
+        }
+        int rows = C[0].length;
+        int cols = rows == 0 ? 0 : C[0][0].length;
+        int inner = B[0].length;
+        pool.invoke(new BatchTask(A, B, C, 0, C.length, grain(rows, inner, cols)));
+    }
+
+    /**
+     * Multiplies a batch of equally sized matrices stored back to back in
+     * flat row major arrays. Item n of A starts at n * rows * inner, of B at
+     * n * inner * cols and of C at n * rows * cols
+     *
+     * @param A the first matrix of each product
+     * @param B the second matrix of each product
+     * @param C the array that will store the products, overwritten
+     * @param count the number of products
+     * @param rows the rows of each A and C
+     * @param inner the columns of each A and rows of each B
+     * @param cols the columns of each B and C
+     */
+    public void multiplyBatch(int[] A, int[] B, int[] C, int count, int rows, int inner, int cols) {
+        if (A.length < (long) count * rows * inner || B.length < (long) count * inner * cols || C.length < (long) count * rows * cols) {
+            throw new IllegalArgumentException("arrays too short for " + count + " products of " + rows + "x" + inner + " by " + inner + "x" + cols);
+        }
+        if (count == 0) {
+            return;
+        }
+        pool.invoke(new FlatBatchTask(A, B, C, rows, inner, cols, 0, count, grain(rows, inner, cols)));
+    }
+
+    /*
+     * how many products a leaf task multiplies
+     */
+    private static int grain(int rows, int inner, int cols) {
+        long work = Math.max(1L, (long) rows * inner * cols);
+        return (int) Math.max(1, LEAF_WORK / work);
+    }
+
+    /*
+     * splits the range of items in half until it is small enough to multiply
+     * sequentially
+     */
+    private static final class BatchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[][][] A, B, C;
+        private final int lo, hi, grain;
+
+        BatchTask(int[][][] A, int[][][] B, int[][][] C, int lo, int hi, int grain) {
+            this.A = A;
+            this.B = B;
+            this.C = C;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                for (int n = lo; n < hi; n++) {
+                    multiply(A[n], B[n], C[n]);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new BatchTask(A, B, C, lo, mid, grain), new BatchTask(A, B, C, mid, hi, grain));
+        }
+
+        private static void multiply(int[][] a, int[][] b, int[][] c) {
+            for (int i = 0; i < c.length; i++) {
+                int[] rowA = a[i];
+                int[] rowC = c[i];
+                Arrays.fill(rowC, 0);
+                for (int k = 0; k < b.length; k++) {
+                    int value = rowA[k];
+                    int[] rowB = b[k];
+                    for (int j = 0; j < rowC.length; j++) {
+                        rowC[j] += value * rowB[j];
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * the flat version of BatchTask
+     */
+    private static final class FlatBatchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] A, B, C;
+        private final int rows, inner, cols;
+        private final int lo, hi, grain;
+
+        FlatBatchTask(int[] A, int[] B, int[] C, int rows, int inner, int cols, int lo, int hi, int grain) {
+            this.A = A;
+            this.B = B;
+            this.C = C;
+            this.rows = rows;
+            this.inner = inner;
+            this.cols = cols;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                boolean fourByFour = rows == 4 && inner == 4 && cols == 4;
+                for (int n = lo; n < hi; n++) {
+                    int a = n * rows * inner, b = n * inner * cols, c = n * rows * cols;
+                    if (fourByFour) {
+                        multiply4x4(a, b, c);
+                    } else {
+                        multiply(a, b, c);
+                    }
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new FlatBatchTask(A, B, C, rows, inner, cols, lo, mid, grain), new FlatBatchTask(A, B, C, rows, inner, cols, mid, hi, grain));
+        }
+
+        private void multiply(int a, int b, int c) {
+            Arrays.fill(C, c, c + rows * cols, 0);
+            for (int i = 0; i < rows; i++) {
+                int rowA = a + i * inner;
+                int rowC = c + i * cols;
+                for (int k = 0; k < inner; k++) {
+                    int value = A[rowA + k];
+                    int rowB = b + k * cols;
+                    for (int j = 0; j < cols; j++) {
+                        C[rowC + j] += value * B[rowB + j];
+                    }
+                }
+            }
+        }
+
+        /*
+         * B is held in locals, each row of A is read once and each row of C
+         * written once
+         */
+        private void multiply4x4(int a, int b, int c) {
+            int b00 = B[b], b01 = B[b + 1], b02 = B[b + 2], b03 = B[b + 3];
+            int b10 = B[b + 4], b11 = B[b + 5], b12 = B[b + 6], b13 = B[b + 7];
+            int b20 = B[b + 8], b21 = B[b + 9], b22 = B[b + 10], b23 = B[b + 11];
+            int b30 = B[b + 12], b31 = B[b + 13], b32 = B[b + 14], b33 = B[b + 15];
+            for (int i = 0; i < 4; i++) {
+                int rowA = a + 4 * i, rowC = c + 4 * i;
+                int a0 = A[rowA], a1 = A[rowA + 1], a2 = A[rowA + 2], a3 = A[rowA + 3];
+                C[rowC] = a0 * b00 + a1 * b10 + a2 * b20 + a3 * b30;
+                C[rowC + 1] = a0 * b01 + a1 * b11 + a2 * b21 + a3 * b31;
+                C[rowC + 2] = a0 * b02 + a1 * b12 + a2 * b22 + a3 * b32;
+                C[rowC + 3] = a0 * b03 + a1 * b13 + a2 * b23 + a3 * b33;
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package matrix;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Provides an implementation of the MatMath interface that remembers the
+ * products it has computed. Operands are identified by their contents: every
+ * row is hashed in parallel with two independent 64 bit hashes, and each set
+ * of row hashes is folded into one half of a 128 bit fingerprint, so equal
+ * matrices held in different arrays hit the same entry.
+ * Hashing is O(n^2) against the O(n^3) of the product. Callers that never
+ * change an array after passing it in can turn on the identity shortcut,
+ * which remembers the fingerprint of each array and skips hashing it again.
+ * Cached products are held flat and bounded by their size in bytes, evicting
+ * the least recently or least frequently used first. They are handed out as
+ * copies, or as read only buffers. Sums are cheaper than hashing their
+ * operands, so they are never cached
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathCached implements MatMath {
+
+    /**
+     * Which product to evict when the cache is full
+     */
+    public enum Eviction {
+        LEAST_RECENTLY_USED, LEAST_FREQUENTLY_USED
+    }
+
+    private final MatMath delegate;
+    private final long maxBytes;
+    private final Eviction eviction;
+    private final ForkJoinPool pool;
+    private final Map<int[][], Fingerprint> identities; // null unless the identity shortcut is on
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // iterates least recently used first
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long bytes;
+
+    /**
+     * Creates a least recently used cache that hashes every operand on the
+     * common fork/join pool
+     *
+     * @param delegate computes the products that are not cached
+     * @param maxBytes the most memory the cached products may use
+     */
+    public MatMathCached(MatMath delegate, long maxBytes) {
+        this(delegate, maxBytes, Eviction.LEAST_RECENTLY_USED, false, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a cache
+     *
+     * @param delegate computes the products that are not cached
+     * @param maxBytes the most memory the cached products may use
+     * @param eviction which product to evict when the cache is full
+     * @param identityShortcut remember the fingerprint of each array, only safe if arrays are never changed after being passed in
+     * @param pool the fork/join pool to hash rows on
+     */
+    public MatMathCached(MatMath delegate, long maxBytes, Eviction eviction, boolean identityShortcut, ForkJoinPool pool) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("cache size must not be negative: " + maxBytes);
+        }
+        this.delegate = delegate;
+        this.maxBytes = maxBytes;
+        this.eviction = eviction;
+        this.pool = pool;
+        this.identities = identityShortcut ? new WeakHashMap<>() : null; // arrays hash by identity
+    }
+
+    /**
+     * Multiplies 2 matrices, or copies the product if it is cached
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication, rows of A x columns of B
+     */
+    @Override
+    public void multiply(int[][] A, int[][] B, int[][] C) {
+        int cols = B.length == 0 ? 0 : B[0].length;
+        if (C.length != A.length) {
+            throw new IllegalArgumentException("result has " + C.length + " rows, expected " + A.length);
+        }
+        for (int[] row : C) {
+            if (row.length != cols) {
+                throw new IllegalArgumentException("result has a row of " + row.length + " columns, expected " + cols);
+            }
+        }
+        int[] product = lookup(A, B);
+        for (int i = 0; i < C.length; i++) {
+            System.arraycopy(product, i * cols, C[i], 0, cols);
+        }
+    }
+
+    /**
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @return a read only, row major view of the product, shared with the cache
+     */
+    public IntBuffer multiplyView(int[][] A, int[][] B) {
+        return IntBuffer.wrap(lookup(A, B)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Adds two matrices together, sums are not cached
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(int[][] A, int[][] B, int[][] C) {
+        delegate.add(A, B, C);
+    }
+
+    /**
+     * Print out a matrix
+     *
+     * @param A the matrix to be printed
+     */
+    @Override
+    public void print(int[][] A) {
+        for (int[] subarray : A) {
+            System.out.println(Arrays.toString(subarray));
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the fraction of lookups that were hits, 0 before the first lookup
+     */
+    public double getHitRate() {
+        long h = hits.get(), total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return the memory used by the cached products
+     */
+    public synchronized long getCachedBytes() {
+        return bytes;
+    }
+
+    public synchronized int getCachedProducts() {
+        return entries.size();
+    }
+
+    /**
+     * Drops every cached product and remembered fingerprint, the metrics are
+     * kept
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+        if (identities != null) {
+            identities.clear();
+        }
+    }
+
+    /*
+     * returns the flat product from the cache, computing and caching it on a
+     * miss. Two threads missing on the same product both compute it
+     */
+    private int[] lookup(int[][] A, int[][] B) {
+        Key key = new Key(fingerprint(A), fingerprint(B));
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                entry.uses++;
+                hits.incrementAndGet();
+                return entry.product;
+            }
+        }
+        misses.incrementAndGet();
+
+        int cols = B.length == 0 ? 0 : B[0].length;
+        int[][] C = new int[A.length][cols]; // zeroed, some implementations accumulate
+        delegate.multiply(A, B, C);
+        int[] product = new int[A.length * cols];
+        for (int i = 0; i < A.length; i++) {
+            System.arraycopy(C[i], 0, product, i * cols, cols);
+        }
+        store(key, product);
+        return product;
+    }
+
+    private synchronized void store(Key key, int[] product) {
+        long size = 16 + 4L * product.length;
+        if (size > maxBytes || entries.containsKey(key)) {
+            return;
+        }
+        while (bytes + size > maxBytes) {
+            evictOne();
+        }
+        entries.put(key, new Entry(product));
+        bytes += size;
+    }
+
+    private void evictOne() {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        Map.Entry<Key, Entry> victim = it.next(); // least recently used
+        if (eviction == Eviction.LEAST_FREQUENTLY_USED) {
+            while (it.hasNext()) {
+                Map.Entry<Key, Entry> next = it.next();
+                if (next.getValue().uses < victim.getValue().uses) {
+                    victim = next; // ties go to the least recently used
+                }
+            }
+        }
+        entries.remove(victim.getKey());
+        bytes -= 16 + 4L * victim.getValue().product.length;
+        evictions.incrementAndGet();
+    }
+
+    private Fingerprint fingerprint(int[][] M) {
+        if (identities != null) {
+            synchronized (identities) {
+                Fingerprint known = identities.get(M);
+                if (known != null) {
+                    return known;
+                }
+            }
+        }
+        long[] rowHashes = new long[2 * M.length]; // the two hashes of row i are at 2i and 2i + 1
+        pool.submit(() -> IntStream.range(0, M.length).parallel().forEach(i -> hashRow(M[i], rowHashes, 2 * i))).join();
+        long h1 = M.length, h2 = M.length == 0 ? 0 : M[0].length;
+        for (int i = 0; i < rowHashes.length; i += 2) {
+            h1 = mix(h1 ^ rowHashes[i]) * 0x9E3779B97F4A7C15L;
+            h2 = mix(h2 + rowHashes[i + 1] * 0xC2B2AE3D27D4EB4FL);
+        }
+        Fingerprint fingerprint = new Fingerprint(M.length, M.length == 0 ? 0 : M[0].length, h1, h2);
+        if (identities != null) {
+            synchronized (identities) {
+                identities.put(M, fingerprint);
+            }
+        }
+        return fingerprint;
+    }
+
+    /*
+     * stores two hashes of the row at hashes[at] and hashes[at + 1], a
+     * multiplicative one and an xxhash style rotating one with its own seed,
+     * so a collision in one says nothing about the other
+     */
+    private static void hashRow(int[] row, long[] hashes, int at) {
+        long h1 = row.length;
+        long h2 = row.length ^ 0x27D4EB2F165667C5L;
+        for (int value : row) {
+            h1 = (h1 ^ value) * 0xFF51AFD7ED558CCDL;
+            h2 = Long.rotateLeft(h2 + value * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+        }
+        hashes[at] = mix(h1);
+        hashes[at + 1] = mix(h2);
+    }
+
+    /*
+     * the murmur3 finaliser
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /*
+     * the shape and contents of an operand
+     */
+    private static final class Fingerprint {
+
+        final int rows, cols;
+        final long h1, h2;
+
+        Fingerprint(int rows, int cols, long h1, long h2) {
+            this.rows = rows;
+            this.cols = cols;
+            this.h1 = h1;
+            this.h2 = h2;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint f = (Fingerprint) o;
+            return rows == f.rows && cols == f.cols && h1 == f.h1 && h2 == f.h2;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (h1 ^ (h1 >>> 32));
+        }
+    }
+
+    private static final class Key {
+
+        final Fingerprint a, b;
+
+        Key(Fingerprint a, Fingerprint b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && a.equals(((Key) o).a) && b.equals(((Key) o).b);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * a.hashCode() + b.hashCode();
+        }
+    }
+
+    private static final class Entry {
+
+        final int[] product;
+        long uses;
+
+        Entry(int[] product) {
+            this.product = product;
+        }
+    }
+}
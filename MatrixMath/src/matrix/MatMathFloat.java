@@ -0,0 +1,134 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Provides matrix multiplication and addition for float operands that
+ * accumulate and store their results as float, for fractional values where
+ * memory matters more than precision. Rows of the result are computed in
+ * parallel on a fork/join pool, each one sequentially in i-k-j order so B is
+ * read along its rows. In compensated mode every element of the result carries
+ * a Kahan compensation term while it is accumulated, so the rounding error of a
+ * product no longer grows with the length of the dot products, at about twice
+ * the cost. Generated from templates/MatMathPrimitive.java.template, edit the
+ * template and run templates/GenerateMatMath.java instead of editing this file
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathFloat {
+
+    private final ForkJoinPool pool;
+    private final boolean compensated;
+
+    /**
+     * Creates an implementation that uses the common fork/join pool
+     */
+    public MatMathFloat() {
+        this(ForkJoinPool.commonPool(), false);
+    }
+
+    /**
+     * Creates an implementation
+     *
+     * @param pool the fork/join pool to run the rows on
+     * @param compensated use Kahan summation when accumulating products
+     */
+    public MatMathFloat(ForkJoinPool pool, boolean compensated) {
+        this.pool = pool;
+        this.compensated = compensated;
+    }
+
+    /**
+     * @return true if products are accumulated with Kahan summation
+     */
+    public boolean isCompensated() {
+        return compensated;
+    }
+
+    /**
+     * Multiplies 2 matrices and stores the result in a third array
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    public void multiply(float[][] A, float[][] B, float[][] C) {
+        int cols = C.length == 0 ? 0 : C[0].length;
+        if (A.length != C.length || (A.length > 0 && A[0].length != B.length) || (B.length > 0 && B[0].length != cols)) {
+            throw new IllegalArgumentException("cannot multiply " + A.length + "x" + (A.length == 0 ? 0 : A[0].length) + " by " + B.length + "x" + (B.length == 0 ? 0 : B[0].length) + " into " + C.length + "x" + cols);
+        }
+        if (compensated) {
+            parallel(C.length, i -> {
+                float[] rowA = A[i];
+                float[] rowC = C[i];
+                float[] compensation = new float[cols];
+                Arrays.fill(rowC, 0);
+                for (int k = 0; k < B.length; k++) {
+                    float a = rowA[k];
+                    float[] rowB = B[k];
+                    for (int j = 0; j < cols; j++) {
+                        float y = a * rowB[j] - compensation[j];
+                        float t = rowC[j] + y;
+                        compensation[j] = (t - rowC[j]) - y; // the low order bits of y lost in the addition
+                        rowC[j] = t;
+                    }
+                }
+            });
+            return;
+        }
+        parallel(C.length, i -> {
+            float[] rowA = A[i];
+            float[] rowC = C[i];
+            Arrays.fill(rowC, 0);
+            for (int k = 0; k < B.length; k++) {
+                float a = rowA[k];
+                float[] rowB = B[k];
+                for (int j = 0; j < cols; j++) {
+                    rowC[j] += a * rowB[j];
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds two matrices together and stores the result in a third matrix
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    public void add(float[][] A, float[][] B, float[][] C) {
+        parallel(A.length, i -> {
+            float[] rowA = A[i], rowB = B[i];
+            float[] rowC = C[i];
+            for (int j = 0; j < rowC.length; j++) {
+                rowC[j] = rowA[j] + rowB[j];
+            }
+        });
+    }
+
+    /**
+     * Print out a matrix
+     *
+     * @param A the matrix to be printed
+     */
+    public void print(float[][] A) {
+        for (float[] subarray : A) {
+            System.out.println(Arrays.toString(subarray));
+        }
+    }
+
+    /*
+     * the work for one row of the result
+     */
+    private interface RowTask {
+        void compute(int row);
+    }
+
+    private void parallel(int rows, RowTask task) {
+        pool.submit(() -> IntStream.range(0, rows).parallel().forEach(task::compute)).join();
+    }
+}
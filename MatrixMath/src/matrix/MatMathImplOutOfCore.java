@@ -0,0 +1,230 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides an implementation of the MatMath interface for matrices that live
+ * in MatrixFiles and may not fit in the heap. The product is computed one tile
+ * of C at a time: every worker thread owns an accumulator tile and two pairs of
+ * A/B tile buffers, and while it multiplies one pair an I/O thread is already
+ * copying the next pair out of the mapped files. The memory used is therefore
+ * bounded by 5 tiles per worker whatever the size of the matrices. An
+ * interrupted call lets every worker finish the tile it is on, including its
+ * pending read, and then throws a CompletionException, C is incomplete. Plain
+ * int[][] arrays are already in the heap, so for those this just uses the
+ * tiled in-memory implementation
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathImplOutOfCore implements MatMath, AutoCloseable {
+
+    private final ExecutorService workers;
+    private final ExecutorService io;
+    private final int numWorkers;
+    private final MatMath inMemory = new MatMathImplTiled();
+
+    /**
+     * Creates an out of core implementation with one worker per CPU core
+     */
+    public MatMathImplOutOfCore() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an out of core implementation
+     *
+     * @param numWorkers the number of threads multiplying tiles
+     */
+    public MatMathImplOutOfCore(int numWorkers) {
+        this.numWorkers = numWorkers;
+        workers = Executors.newFixedThreadPool(numWorkers, new PoolThreadFactory("matmath-outofcore"));
+        io = Executors.newFixedThreadPool(numWorkers, new PoolThreadFactory("matmath-outofcore-io"));
+    }
+
+    /**
+     * Multiplies 2 matrix files and stores the result in a third. All three
+     * must have the same tile size
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication, opened writable
+     */
+    public void multiply(MatrixFile A, MatrixFile B, MatrixFile C) {
+        int t = checkTiles(A, B, C);
+        if (A.getRows() != C.getRows() || B.getCols() != C.getCols() || A.getCols() != B.getRows()) {
+            throw new IllegalArgumentException("cannot multiply " + A.getRows() + "x" + A.getCols() + " by " + B.getRows() + "x" + B.getCols() + " into " + C.getRows() + "x" + C.getCols());
+        }
+        int tileCols = C.getTileCols();
+        int tiles = C.getTileRows() * tileCols;
+        int depth = A.getTileCols();
+        AtomicInteger nextTile = new AtomicInteger();
+        TaskGroup tasks = new TaskGroup(numWorkers);
+
+        for (int w = 0; w < numWorkers; w++) {
+            workers.execute(tasks.task(() -> {
+                int[] sum = new int[t * t];
+                TilePair[] pairs = { new TilePair(t), new TilePair(t) }; // one being multiplied, one being read
+                for (int tile = nextTile.getAndIncrement(); tile < tiles && !tasks.isCancelled(); tile = nextTile.getAndIncrement()) {
+                    int ti = tile / tileCols, tj = tile % tileCols;
+                    Arrays.fill(sum, 0);
+                    CompletableFuture<TilePair> loading = depth == 0 ? null : pairs[0].load(A, B, ti, 0, tj, io);
+                    for (int tk = 0; tk < depth; tk++) {
+                        TilePair ready = loading.join();
+                        if (tk + 1 < depth) { // start reading the next pair before multiplying this one
+                            loading = pairs[(tk + 1) % 2].load(A, B, ti, tk + 1, tj, io);
+                        }
+                        multiplyTile(ready.a, ready.b, sum, t);
+                    }
+                    C.writeTile(ti, tj, sum);
+                }
+            }));
+        }
+        tasks.awaitCompletion(); // a worker stops between tiles, after joining its last read
+    }
+
+    /**
+     * Adds two matrix files together and stores the result in a third. All
+     * three must have the same tile size
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together, opened writable
+     */
+    public void add(MatrixFile A, MatrixFile B, MatrixFile C) {
+        int t = checkTiles(A, B, C);
+        if (A.getRows() != B.getRows() || A.getCols() != B.getCols() || A.getRows() != C.getRows() || A.getCols() != C.getCols()) {
+            throw new IllegalArgumentException("cannot add " + A.getRows() + "x" + A.getCols() + " and " + B.getRows() + "x" + B.getCols() + " into " + C.getRows() + "x" + C.getCols());
+        }
+        int tileCols = C.getTileCols();
+        int tiles = C.getTileRows() * tileCols;
+        AtomicInteger nextTile = new AtomicInteger();
+        TaskGroup tasks = new TaskGroup(numWorkers);
+
+        for (int w = 0; w < numWorkers; w++) {
+            workers.execute(tasks.task(() -> {
+                TilePair pair = new TilePair(t);
+                for (int tile = nextTile.getAndIncrement(); tile < tiles && !tasks.isCancelled(); tile = nextTile.getAndIncrement()) {
+                    int ti = tile / tileCols, tj = tile % tileCols;
+                    A.readTile(ti, tj, pair.a);
+                    B.readTile(ti, tj, pair.b);
+                    for (int e = 0; e < pair.a.length; e++) {
+                        pair.a[e] += pair.b[e];
+                    }
+                    C.writeTile(ti, tj, pair.a);
+                }
+            }));
+        }
+        tasks.awaitCompletion(); // a worker stops between tiles, after joining its last read
+    }
+
+    /**
+     * Multiplies 2 matrices that are already in the heap
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(int[][] A, int[][] B, int[][] C) {
+        inMemory.multiply(A, B, C);
+    }
+
+    /**
+     * Adds two matrices that are already in the heap
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(int[][] A, int[][] B, int[][] C) {
+        inMemory.add(A, B, C);
+    }
+
+    /**
+     * Print out a matrix
+     *
+     * @param A the matrix to be printed
+     */
+    @Override
+    public void print(int[][] A) {
+        for (int[] subarray : A) {
+            System.out.println(Arrays.toString(subarray));
+        }
+    }
+
+    /**
+     * Shuts down the worker and I/O threads
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+        io.shutdown();
+        try {
+            workers.awaitTermination(2, TimeUnit.MINUTES); // wait 2 minutes to shut down
+            io.awaitTermination(2, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            workers.shutdownNow(); // force shut down if we get interrupted
+            io.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * sum += a * b for t x t tiles, i-k-j order
+     */
+    private static void multiplyTile(int[] a, int[] b, int[] sum, int t) {
+        for (int i = 0; i < t; i++) {
+            int row = i * t;
+            for (int k = 0; k < t; k++) {
+                int value = a[row + k];
+                if (value == 0) {
+                    continue; // padding at the edges of the matrix
+                }
+                int bRow = k * t;
+                for (int j = 0; j < t; j++) {
+                    sum[row + j] += value * b[bRow + j];
+                }
+            }
+        }
+    }
+
+    private static int checkTiles(MatrixFile A, MatrixFile B, MatrixFile C) {
+        int t = C.getTileSize();
+        if (A.getTileSize() != t || B.getTileSize() != t) {
+            throw new IllegalArgumentException("matrix files must share a tile size, got " + A.getTileSize() + ", " + B.getTileSize() + " and " + t);
+        }
+        return t;
+    }
+
+    /*
+     * buffers for one tile of A and the matching tile of B
+     */
+    private static final class TilePair {
+
+        final int[] a;
+        final int[] b;
+
+        TilePair(int t) {
+            a = new int[t * t];
+            b = new int[t * t];
+        }
+
+        /*
+         * copies A(ti, tk) and B(tk, tj) out of the files on an I/O thread
+         */
+        CompletableFuture<TilePair> load(MatrixFile A, MatrixFile B, int ti, int tk, int tj, ExecutorService io) {
+            return CompletableFuture.supplyAsync(() -> {
+                A.readTile(ti, tk, a);
+                B.readTile(tk, tj, b);
+                return this;
+            }, io);
+        }
+    }
+}
@@ -7,12 +7,49 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * Provides an implementation of the MatMath interface that uses fixed size
- * thread pools do the matrix multiplication and addition
+ * thread pools do the matrix multiplication and addition. The pool lives as
+ * long as this object, every call waits only for its own tasks, and the pool
+ * is shut down by closing this object. The pool can also be shared with other
+ * code, in which case closing leaves it running
  * 
  * @author Peter Swantek
  *
  */
-public class MatMathImplPools implements MatMath {
+public class MatMathImplPools implements MatMath, AutoCloseable {
+
+    private final ExecutorService pool;
+    private final boolean ownsPool; // only shut down pools we created
+
+    /**
+     * Creates an implementation with its own pool of one thread per CPU core
+     */
+    public MatMathImplPools() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an implementation with its own fixed size pool
+     * 
+     * @param numThreads the number of threads in the pool
+     */
+    public MatMathImplPools(int numThreads) {
+        this(Executors.newFixedThreadPool(numThreads, new PoolThreadFactory("matmath-pools")), true);
+    }
+
+    /**
+     * Creates an implementation that runs its tasks on a shared executor,
+     * closing this implementation will not shut the executor down
+     * 
+     * @param pool the executor to run the tasks on
+     */
+    public MatMathImplPools(ExecutorService pool) {
+        this(pool, false);
+    }
+
+    private MatMathImplPools(ExecutorService pool, boolean ownsPool) {
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
 
     /**
      * Multiplies 2 matrices and stores the result in a third array
@@ -24,27 +61,17 @@ public class MatMathImplPools implements MatMath {
     @Override
     public void multiply(int[][] A, int[][] B, int[][] C) {
 
-        //make as many threads depending on the amount of CPU cores
-        int NUM_THREADS = Runtime.getRuntime().availableProcessors();
-
-        //create fixed size thread pool
-        ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+        TaskGroup tasks = new TaskGroup(cells(C));
 
         for (int i = 0; i < C.length; i++) {
             for (int j = 0; j < C[i].length; j++) {
                 //submits a task to the thread pool
-                pool.submit(new MultiplicationWorker(i, j, B.length, A, B, C));
+                pool.execute(tasks.task(new MultiplicationWorker(i, j, B.length, A, B, C)));
             }
         }
 
-        // shut down, make sure all tasks finish before publishing the result
-        pool.shutdown();
-        try {
-            pool.awaitTermination(2, TimeUnit.MINUTES); // wait 2 minutes to shut down
-        } catch (InterruptedException e) {
-            pool.shutdownNow(); // force shut down if we get interrupted
-            Thread.currentThread().interrupt();
-        }
+        // make sure all tasks finish before publishing the result
+        tasks.awaitCompletion();
     }
 
     /**
@@ -57,16 +84,71 @@ public class MatMathImplPools implements MatMath {
     @Override
     public void add(int[][] A, int[][] B, int[][] C) {
 
-        int NUM_THREADS = Runtime.getRuntime().availableProcessors();
-        ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+        TaskGroup tasks = new TaskGroup(cells(A));
 
         for (int i = 0; i < A.length; i++) {
             for (int j = 0; j < A[i].length; j++) {
-                pool.submit(new AdditionWorker(i, j, A, B, C));
+                pool.execute(tasks.task(new AdditionWorker(i, j, A, B, C)));
             }
         }
 
-        // shut down, make sure all tasks finish before publishing the result
+        tasks.awaitCompletion();
+    }
+
+    /**
+     * Multiplies 2 flat matrices and stores the result in a third, submitting
+     * a task for each cell of the result to the thread pool. Like the jagged
+     * version the product is added to what C already holds
+     * 
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication, zero it first
+     */
+    @Override
+    public void multiply(IntMatrix A, IntMatrix B, IntMatrix C) {
+        TaskGroup tasks = new TaskGroup(C.getRows() * C.getCols());
+
+        for (int i = 0; i < C.getRows(); i++) {
+            for (int j = 0; j < C.getCols(); j++) {
+                pool.execute(tasks.task(new FlatMultiplicationWorker(i, j, A, B, C)));
+            }
+        }
+
+        tasks.awaitCompletion();
+    }
+
+    /**
+     * Adds two flat matrices together and stores the result in a third,
+     * submitting a task for each cell of the result to the thread pool
+     * 
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(IntMatrix A, IntMatrix B, IntMatrix C) {
+        TaskGroup tasks = new TaskGroup(A.getRows() * A.getCols());
+
+        for (int i = 0; i < A.getRows(); i++) {
+            for (int j = 0; j < A.getCols(); j++) {
+                final int row = i;
+                final int col = j;
+                pool.execute(tasks.task(() -> C.set(row, col, A.get(row, col) + B.get(row, col))));
+            }
+        }
+
+        tasks.awaitCompletion();
+    }
+
+    /**
+     * Shuts down the thread pool if this implementation created it, waiting
+     * for tasks that are still running
+     */
+    @Override
+    public void close() {
+        if (!ownsPool) {
+            return;
+        }
         pool.shutdown();
         try {
             pool.awaitTermination(2, TimeUnit.MINUTES); // wait 2 minutes to shut down
@@ -76,6 +158,16 @@ public class MatMathImplPools implements MatMath {
         }
     }
 
+    /**
+     * Creates an asynchronous version of this implementation, see
+     * {@link AsyncMatMathImpl} for how its operations run and are cancelled
+     * 
+     * @return an asynchronous implementation on this one's thread pool
+     */
+    public AsyncMatMath async() {
+        return new AsyncMatMathImpl(pool);
+    }
+
     /**
      * Print out a matrix
      * 
@@ -88,6 +180,19 @@ public class MatMathImplPools implements MatMath {
         }
     }
 
+    /*
+     * the number of tasks the submit loops create, one per element, counted
+     * row by row the same way the loops walk them so a ragged matrix cannot
+     * leave the group waiting for tasks that were never submitted
+     */
+    private static int cells(int[][] M) {
+        int cells = 0;
+        for (int[] row : M) {
+            cells += row.length;
+        }
+        return cells;
+    }
+
     /*
      * worker for doing matrix multiplication
      */
@@ -141,4 +246,39 @@ public class MatMathImplPools implements MatMath {
             C[rowNum][colNum] = A[rowNum][colNum] + B[rowNum][colNum];
         }
     }
+
+    /*
+     * worker for doing flat matrix multiplication, walks a row of A and a
+     * column of B directly in their backing arrays
+     */
+    private class FlatMultiplicationWorker implements Runnable {
+
+        private int rowNum;
+        private int colNum;
+        private IntMatrix A;
+        private IntMatrix B;
+        private IntMatrix C;
+
+        public FlatMultiplicationWorker(int i, int j, IntMatrix first, IntMatrix second, IntMatrix result) {
+            rowNum = i;
+            colNum = j;
+            A = first;
+            B = second;
+            C = result;
+        }
+
+        @Override
+        public void run() {
+            int[] a = A.getData();
+            int[] b = B.getData();
+            int aIndex = A.index(rowNum, 0);
+            int bIndex = B.index(0, colNum);
+            int bStride = B.getStride();
+            int sum = C.get(rowNum, colNum); // adds into C, the same as the jagged path
+            for (int k = 0; k < B.getRows(); k++, bIndex += bStride) {
+                sum += a[aIndex + k] * b[bIndex];
+            }
+            C.set(rowNum, colNum, sum);
+        }
+    }
 }
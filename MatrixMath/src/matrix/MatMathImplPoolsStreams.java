@@ -4,16 +4,57 @@ import java.util.Arrays;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.IntStream;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
 
 /**
  * Provides an implementation of the MatMath interface that uses Streams along
- * with thread pools to perform matrix multiplication and addition
+ * with thread pools to perform matrix multiplication and addition. A stream
+ * over the square tiles of the result submits one pool task per tile, and
+ * each task computes its tile sequentially. The pool lives as long as this
+ * object and every call waits only for its own tasks, closing this object
+ * shuts the pool down unless it was passed in
  * 
  * @author Peter Swantek
  *
  */
-public class MatMathImplPoolsStreams implements MatMath {
+public class MatMathImplPoolsStreams implements MatMath, AutoCloseable {
+
+    private static final int TILE_SIZE = 64; // side of the tile of the result computed by one task
+
+    private final ExecutorService pool;
+    private final boolean ownsPool; // only shut down pools we created
+
+    /**
+     * Creates an implementation with its own pool of one thread per CPU core
+     */
+    public MatMathImplPoolsStreams() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an implementation with its own fixed size pool
+     * 
+     * @param numThreads the number of threads in the pool
+     */
+    public MatMathImplPoolsStreams(int numThreads) {
+        this(Executors.newFixedThreadPool(numThreads, new PoolThreadFactory("matmath-pools-streams")), true);
+    }
+
+    /**
+     * Creates an implementation that runs its tasks on a shared executor,
+     * closing this implementation will not shut the executor down
+     * 
+     * @param pool the executor to run the tasks on
+     */
+    public MatMathImplPoolsStreams(ExecutorService pool) {
+        this(pool, false);
+    }
+
+    private MatMathImplPoolsStreams(ExecutorService pool, boolean ownsPool) {
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
 
     /**
      * Multiplies 2 matrices and stores the result in a third array
@@ -24,22 +65,7 @@ public class MatMathImplPoolsStreams implements MatMath {
      */
     @Override
     public void multiply(int[][] A, int[][] B, int[][] C) {
-
-        int NUM_THREADS = Runtime.getRuntime().availableProcessors();
-        ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
-
-        IntStream.range(0, A.length).parallel().forEach(i -> IntStream.range(0, B[0].length).parallel().forEach(
-                j -> IntStream.range(0, B.length).parallel().forEach(p -> pool.submit(() -> C[i][j] = IntStream.range(0, B.length).parallel().map(k -> A[i][k] * B[k][j]).reduce(0, Integer::sum)))));
-
-        // shut down, make sure all tasks finish before publishing the result
-        pool.shutdown();
-        try {
-            pool.awaitTermination(2, TimeUnit.MINUTES); // wait 2 minutes to
-                                                        // shut down
-        } catch (InterruptedException e) {
-            pool.shutdownNow(); // force shut down if we get interrupted
-            Thread.currentThread().interrupt();
-        }
+        submitTiles(C.length, C.length == 0 ? 0 : C[0].length, tile -> tile.multiply(A, B, C));
     }
 
     /**
@@ -51,13 +77,44 @@ public class MatMathImplPoolsStreams implements MatMath {
      */
     @Override
     public void add(int[][] A, int[][] B, int[][] C) {
+        submitTiles(A.length, A.length == 0 ? 0 : A[0].length, tile -> tile.add(A, B, C));
+    }
 
-        int NUM_THREADS = Runtime.getRuntime().availableProcessors();
-        ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+    /**
+     * Multiplies 2 flat matrices and stores the result in a third, each tile
+     * of the result is a task in the thread pool
+     * 
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(IntMatrix A, IntMatrix B, IntMatrix C) {
+        submitTiles(C.getRows(), C.getCols(), tile -> tile.multiply(A, B, C));
+    }
 
-        IntStream.range(0, A.length).parallel().forEach(i -> IntStream.range(0, A[i].length).parallel().forEach(j -> pool.submit(() -> C[i][j] = A[i][j] + B[i][j])));
+    /**
+     * Adds two flat matrices together and stores the result in a third, each
+     * tile of the result is a task in the thread pool
+     * 
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(IntMatrix A, IntMatrix B, IntMatrix C) {
+        submitTiles(A.getRows(), A.getCols(), tile -> tile.add(A, B, C));
+    }
 
-        // shut down, make sure all tasks finish before publishing the result
+    /**
+     * Shuts down the thread pool if this implementation created it, waiting
+     * for tasks that are still running
+     */
+    @Override
+    public void close() {
+        if (!ownsPool) {
+            return;
+        }
         pool.shutdown();
         try {
             pool.awaitTermination(2, TimeUnit.MINUTES); // wait 2 minutes to
@@ -68,6 +125,16 @@ public class MatMathImplPoolsStreams implements MatMath {
         }
     }
 
+    /**
+     * Creates an asynchronous version of this implementation, see
+     * {@link AsyncMatMathImpl} for how its operations run and are cancelled
+     * 
+     * @return an asynchronous implementation on this one's thread pool
+     */
+    public AsyncMatMath async() {
+        return new AsyncMatMathImpl(pool);
+    }
+
     /**
      * Print out a matrix
      * 
@@ -80,4 +147,16 @@ public class MatMathImplPoolsStreams implements MatMath {
         }
     }
 
+    /*
+     * submits a pool task per tile and waits for all of them
+     */
+    private void submitTiles(int rows, int cols, Consumer<TileSpliterator.Tile> action) {
+        TileSpliterator tiles = new TileSpliterator(rows, cols, TILE_SIZE);
+        TaskGroup tasks = new TaskGroup((int) tiles.estimateSize());
+
+        StreamSupport.stream(tiles, false).forEach(tile -> pool.execute(tasks.task(() -> action.accept(tile))));
+
+        // make sure all tasks finish before publishing the result
+        tasks.awaitCompletion();
+    }
 }
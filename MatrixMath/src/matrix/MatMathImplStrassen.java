@@ -0,0 +1,466 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Provides an implementation of the MatMath interface that multiplies using the
+ * Winograd variant of Strassen's algorithm (7 multiplications and 15 additions
+ * per level). The top levels of the recursion run the 7 sub products in
+ * parallel on a fork/join pool, below that each task recurses sequentially
+ * using scratch buffers that are allocated once and shared by every call at the
+ * same recursion level. Blocks at or below the cutoff size are multiplied with
+ * a classic blocked kernel. Matrices that are not square or whose size is not a
+ * power of two multiple of the leaf size are padded with zeros
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathImplStrassen implements MatMath {
+
+    public static final int DEFAULT_CUTOFF = 128;
+
+    private static final int[] CANDIDATE_CUTOFFS = { 32, 64, 128, 256, 512 };
+    private static final int KERNEL_BLOCK = 64;
+
+    private final ForkJoinPool pool;
+    private final int cutoff;
+    private final MatMath classic;
+
+    /**
+     * Creates a Strassen implementation that uses the common fork/join pool and
+     * the default cutoff
+     */
+    public MatMathImplStrassen() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CUTOFF);
+    }
+
+    /**
+     * Creates a Strassen implementation that uses the common fork/join pool
+     *
+     * @param cutoff blocks with a side at or below this are multiplied classically
+     */
+    public MatMathImplStrassen(int cutoff) {
+        this(ForkJoinPool.commonPool(), cutoff);
+    }
+
+    /**
+     * Creates a Strassen implementation
+     *
+     * @param pool the fork/join pool to run the sub products on
+     * @param cutoff blocks with a side at or below this are multiplied classically
+     */
+    public MatMathImplStrassen(ForkJoinPool pool, int cutoff) {
+        if (cutoff < 1) {
+            throw new IllegalArgumentException("cutoff must be positive: " + cutoff);
+        }
+        this.pool = pool;
+        this.cutoff = cutoff;
+        this.classic = new MatMathImplTiled(pool, MatMathImplTiled.DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Times square multiplies of the given size for a range of cutoffs and
+     * picks the fastest one on this machine
+     *
+     * @param pool the fork/join pool that will be used for multiplying
+     * @param size the side of the square matrices to time, should be close to the sizes that will be multiplied
+     * @return the cutoff that gave the fastest multiply
+     */
+    public static int calibrate(ForkJoinPool pool, int size) {
+        Random random = new Random(42);
+        int[][] A = new int[size][size];
+        int[][] B = new int[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                A[i][j] = random.nextInt(100);
+                B[i][j] = random.nextInt(100);
+            }
+        }
+        int[][] C = new int[size][size];
+
+        int best = DEFAULT_CUTOFF;
+        long bestTime = Long.MAX_VALUE;
+        for (int candidate : CANDIDATE_CUTOFFS) {
+            if (candidate >= size && candidate != CANDIDATE_CUTOFFS[0]) {
+                break; // anything larger just runs the classic kernel again
+            }
+            MatMathImplStrassen impl = new MatMathImplStrassen(pool, candidate);
+            impl.multiply(A, B, C); // warm up
+            long fastest = Long.MAX_VALUE;
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                impl.multiply(A, B, C);
+                fastest = Math.min(fastest, System.nanoTime() - start);
+            }
+            if (fastest < bestTime) {
+                bestTime = fastest;
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return blocks with a side at or below this are multiplied classically
+     */
+    public int getCutoff() {
+        return cutoff;
+    }
+
+    /**
+     * Multiplies 2 matrices and stores the result in a third array
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(int[][] A, int[][] B, int[][] C) {
+        multiply(IntMatrix.fromArray(A), IntMatrix.fromArray(B), new ResultView(C));
+    }
+
+    /**
+     * Multiplies 2 flat matrices and stores the result in a third
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(IntMatrix A, IntMatrix B, IntMatrix C) {
+        multiply(A, B, new ResultView(C));
+    }
+
+    /**
+     * Adds two matrices together and stores the result in a third matrix
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(int[][] A, int[][] B, int[][] C) {
+        classic.add(A, B, C);
+    }
+
+    /**
+     * Adds two flat matrices together and stores the result in a third
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(IntMatrix A, IntMatrix B, IntMatrix C) {
+        classic.add(A, B, C);
+    }
+
+    /**
+     * Print out a matrix
+     *
+     * @param A the matrix to be printed
+     */
+    @Override
+    public void print(int[][] A) {
+        for (int[] subarray : A) {
+            System.out.println(Arrays.toString(subarray));
+        }
+    }
+
+    /*
+     * pads A and B into square buffers, runs the recursion and copies the
+     * interesting part of the padded product back out
+     */
+    private void multiply(IntMatrix A, IntMatrix B, ResultView C) {
+        int rows = A.getRows();
+        int inner = B.getRows();
+        int cols = B.getCols();
+        if (rows == 0 || cols == 0) {
+            return;
+        }
+
+        int n = Math.max(rows, Math.max(inner, cols));
+        if (n <= cutoff) {
+            IntMatrix result = new IntMatrix(rows, cols);
+            classic.multiply(A, B, result);
+            C.copyFrom(result);
+            return;
+        }
+
+        // smallest size of the form leaf * 2^levels that covers n with leaf <= cutoff
+        int levels = 0;
+        int leaf = n;
+        while (leaf > cutoff) {
+            levels++;
+            leaf = (n + (1 << levels) - 1) >> levels;
+        }
+        int size = leaf << levels;
+
+        Block a = Block.padded(A, size);
+        Block b = Block.padded(B, size);
+        Block c = new Block(new int[size * size], 0, size);
+
+        int parallelLevels = 0;
+        for (long tasks = 1; tasks < 4L * pool.getParallelism() && parallelLevels < levels; tasks *= 7) {
+            parallelLevels++;
+        }
+        pool.invoke(new StrassenTask(a, b, c, size, parallelLevels));
+
+        for (int i = 0; i < rows; i++) {
+            C.copyRow(i, c.data, i * size, cols);
+        }
+    }
+
+    /*
+     * runs one level of the recursion with the 7 sub products in parallel,
+     * each sub product gets its own temporaries
+     */
+    private class StrassenTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Block A;
+        private final Block B;
+        private final Block C;
+        private final int n;
+        private final int parallelLevels;
+
+        public StrassenTask(Block first, Block second, Block result, int size, int parallelLevels) {
+            A = first;
+            B = second;
+            C = result;
+            n = size;
+            this.parallelLevels = parallelLevels;
+        }
+
+        @Override
+        protected void compute() {
+            if (n <= cutoff) {
+                multiplyClassic(A, B, C, n);
+                return;
+            }
+            if (parallelLevels == 0) {
+                new Workspace(n, cutoff).multiply(A, B, C, n, 0);
+                return;
+            }
+
+            int h = n / 2;
+            Block A11 = A.quadrant(0, 0, h), A12 = A.quadrant(0, 1, h), A21 = A.quadrant(1, 0, h), A22 = A.quadrant(1, 1, h);
+            Block B11 = B.quadrant(0, 0, h), B12 = B.quadrant(0, 1, h), B21 = B.quadrant(1, 0, h), B22 = B.quadrant(1, 1, h);
+
+            Block S1 = Block.square(h), S2 = Block.square(h), S3 = Block.square(h), S4 = Block.square(h);
+            Block T1 = Block.square(h), T2 = Block.square(h), T3 = Block.square(h), T4 = Block.square(h);
+            add(A21, A22, S1, h);
+            subtract(S1, A11, S2, h);
+            subtract(A11, A21, S3, h);
+            subtract(A12, S2, S4, h);
+            subtract(B12, B11, T1, h);
+            subtract(B22, T1, T2, h);
+            subtract(B22, B12, T3, h);
+            subtract(T2, B21, T4, h);
+
+            Block M1 = Block.square(h), M2 = Block.square(h), M3 = Block.square(h), M4 = Block.square(h);
+            Block M5 = Block.square(h), M6 = Block.square(h), M7 = Block.square(h);
+            int next = parallelLevels - 1;
+            invokeAll(new StrassenTask(A11, B11, M1, h, next), new StrassenTask(A12, B21, M2, h, next),
+                    new StrassenTask(S4, B22, M3, h, next), new StrassenTask(A22, T4, M4, h, next),
+                    new StrassenTask(S1, T1, M5, h, next), new StrassenTask(S2, T2, M6, h, next),
+                    new StrassenTask(S3, T3, M7, h, next));
+
+            Block C11 = C.quadrant(0, 0, h), C12 = C.quadrant(0, 1, h), C21 = C.quadrant(1, 0, h), C22 = C.quadrant(1, 1, h);
+            add(M1, M2, C11, h); // U1
+            add(M1, M6, M6, h); // U2
+            add(M6, M7, M7, h); // U3
+            add(M6, M5, M6, h); // U4
+            add(M6, M3, C12, h); // U5
+            subtract(M7, M4, C21, h); // U6
+            add(M7, M5, C22, h); // U7
+        }
+    }
+
+    /*
+     * scratch buffers for sequential recursion, four h x h buffers for every
+     * level. all the calls at one level run one after the other so they can
+     * share them
+     */
+    private static class Workspace {
+
+        private final int cutoff;
+        private final Block[] X, Y, P, Q;
+
+        public Workspace(int n, int cutoff) {
+            this.cutoff = cutoff;
+            int levels = 0;
+            for (int size = n; size > cutoff; size /= 2) {
+                levels++;
+            }
+            X = new Block[levels];
+            Y = new Block[levels];
+            P = new Block[levels];
+            Q = new Block[levels];
+            int h = n / 2;
+            for (int level = 0; level < levels; level++, h /= 2) {
+                X[level] = Block.square(h);
+                Y[level] = Block.square(h);
+                P[level] = Block.square(h);
+                Q[level] = Block.square(h);
+            }
+        }
+
+        /*
+         * C = A * B, the products are written straight into the quadrants of
+         * C so only four temporaries are needed per level
+         */
+        public void multiply(Block A, Block B, Block C, int n, int level) {
+            if (n <= cutoff) {
+                multiplyClassic(A, B, C, n);
+                return;
+            }
+
+            int h = n / 2;
+            Block A11 = A.quadrant(0, 0, h), A12 = A.quadrant(0, 1, h), A21 = A.quadrant(1, 0, h), A22 = A.quadrant(1, 1, h);
+            Block B11 = B.quadrant(0, 0, h), B12 = B.quadrant(0, 1, h), B21 = B.quadrant(1, 0, h), B22 = B.quadrant(1, 1, h);
+            Block C11 = C.quadrant(0, 0, h), C12 = C.quadrant(0, 1, h), C21 = C.quadrant(1, 0, h), C22 = C.quadrant(1, 1, h);
+            Block x = X[level], y = Y[level], p = P[level], q = Q[level];
+            int next = level + 1;
+
+            subtract(A11, A21, x, h); // S3
+            subtract(B22, B12, y, h); // T3
+            multiply(x, y, C21, h, next); // M7
+            add(A21, A22, x, h); // S1
+            subtract(B12, B11, y, h); // T1
+            multiply(x, y, C22, h, next); // M5
+            subtract(x, A11, x, h); // S2
+            subtract(B22, y, y, h); // T2
+            multiply(x, y, C12, h, next); // M6
+            subtract(A12, x, x, h); // S4
+            multiply(x, B22, p, h, next); // M3
+            multiply(A11, B11, q, h, next); // M1
+            add(C12, q, C12, h); // U2 = M1 + M6
+            add(C21, C12, C21, h); // U3 = U2 + M7
+            add(C12, C22, C12, h); // U4 = U2 + M5
+            add(C12, p, C12, h); // U5 = U4 + M3
+            subtract(y, B21, y, h); // T4
+            multiply(A22, y, p, h, next); // M4
+            subtract(C21, p, C21, h); // U6 = U3 - M4
+            add(C22, C21, C22, h); // M5 + U6
+            add(C22, p, C22, h); // U7 = U3 + M5
+            multiply(A12, B21, p, h, next); // M2
+            add(q, p, C11, h); // U1 = M1 + M2
+        }
+    }
+
+    /*
+     * classic i-k-j kernel blocked over k and j so the rows of B being reused
+     * stay in cache, overwrites C
+     */
+    private static void multiplyClassic(Block A, Block B, Block C, int n) {
+        int[] a = A.data, b = B.data, c = C.data;
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(c, C.offset + i * C.stride, C.offset + i * C.stride + n, 0);
+        }
+        for (int kk = 0; kk < n; kk += KERNEL_BLOCK) {
+            int kEnd = Math.min(kk + KERNEL_BLOCK, n);
+            for (int jj = 0; jj < n; jj += KERNEL_BLOCK) {
+                int jEnd = Math.min(jj + KERNEL_BLOCK, n);
+                for (int i = 0; i < n; i++) {
+                    int aRow = A.offset + i * A.stride;
+                    int cRow = C.offset + i * C.stride;
+                    for (int k = kk; k < kEnd; k++) {
+                        int value = a[aRow + k];
+                        int bRow = B.offset + k * B.stride;
+                        for (int j = jj; j < jEnd; j++) {
+                            c[cRow + j] += value * b[bRow + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void add(Block A, Block B, Block C, int n) {
+        for (int i = 0; i < n; i++) {
+            int aRow = A.offset + i * A.stride, bRow = B.offset + i * B.stride, cRow = C.offset + i * C.stride;
+            for (int j = 0; j < n; j++) {
+                C.data[cRow + j] = A.data[aRow + j] + B.data[bRow + j];
+            }
+        }
+    }
+
+    private static void subtract(Block A, Block B, Block C, int n) {
+        for (int i = 0; i < n; i++) {
+            int aRow = A.offset + i * A.stride, bRow = B.offset + i * B.stride, cRow = C.offset + i * C.stride;
+            for (int j = 0; j < n; j++) {
+                C.data[cRow + j] = A.data[aRow + j] - B.data[bRow + j];
+            }
+        }
+    }
+
+    /*
+     * a square block inside a flat array
+     */
+    private static final class Block {
+
+        final int[] data;
+        final int offset;
+        final int stride;
+
+        Block(int[] data, int offset, int stride) {
+            this.data = data;
+            this.offset = offset;
+            this.stride = stride;
+        }
+
+        static Block square(int n) {
+            return new Block(new int[n * n], 0, n);
+        }
+
+        static Block padded(IntMatrix M, int size) {
+            int[] data = new int[size * size];
+            for (int i = 0; i < M.getRows(); i++) {
+                System.arraycopy(M.getData(), M.index(i, 0), data, i * size, M.getCols());
+            }
+            return new Block(data, 0, size);
+        }
+
+        Block quadrant(int row, int col, int h) {
+            return new Block(data, offset + row * h * stride + col * h, stride);
+        }
+    }
+
+    /*
+     * lets the result be copied out into either a jagged or a flat matrix
+     */
+    private static final class ResultView {
+
+        private final int[][] jagged;
+        private final IntMatrix flat;
+
+        ResultView(int[][] C) {
+            jagged = C;
+            flat = null;
+        }
+
+        ResultView(IntMatrix C) {
+            jagged = null;
+            flat = C;
+        }
+
+        void copyRow(int row, int[] src, int srcPos, int length) {
+            if (flat != null) {
+                System.arraycopy(src, srcPos, flat.getData(), flat.index(row, 0), length);
+            } else {
+                System.arraycopy(src, srcPos, jagged[row], 0, length);
+            }
+        }
+
+        void copyFrom(IntMatrix M) {
+            for (int i = 0; i < M.getRows(); i++) {
+                copyRow(i, M.getData(), M.index(i, 0), M.getCols());
+            }
+        }
+    }
+}
@@ -1,17 +1,57 @@
 package matrix;
 
 import java.util.Arrays;
-import java.util.stream.IntStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
 
 /**
  * Provides an implementation of the MatMath interface that uses Streams to
- * perform matrix multiplication and addition
+ * perform matrix multiplication and addition. The result is split into square
+ * tiles by a spliterator that divides them evenly, each tile is computed
+ * sequentially, and the parallel stream over the tiles runs in a fork/join
+ * pool chosen by the caller rather than the shared common pool
  * 
  * @author Peter Swantek
  *
  */
 public class MatMathImplStreams implements MatMath {
 
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    private final ForkJoinPool pool;
+    private final int tileSize;
+
+    /**
+     * Creates a streams implementation that runs on the common fork/join pool
+     */
+    public MatMathImplStreams() {
+        this(ForkJoinPool.commonPool(), DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a streams implementation that runs on the given pool
+     * 
+     * @param pool the fork/join pool the parallel streams run in
+     */
+    public MatMathImplStreams(ForkJoinPool pool) {
+        this(pool, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a streams implementation
+     * 
+     * @param pool the fork/join pool the parallel streams run in
+     * @param tileSize the side of the tiles of the result that are computed sequentially
+     */
+    public MatMathImplStreams(ForkJoinPool pool, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tile size must be positive: " + tileSize);
+        }
+        this.pool = pool;
+        this.tileSize = tileSize;
+    }
+
     /**
      * Multiplies 2 matrices and stores the result in a third array
      * 
@@ -21,8 +61,7 @@ public class MatMathImplStreams implements MatMath {
      */
     @Override
     public void multiply(int[][] A, int[][] B, int[][] C) {
-        IntStream.range(0, A.length).parallel().forEach(i -> IntStream.range(0, B[0].length).parallel()
-                .forEach(j -> IntStream.range(0, B.length).parallel().forEach(p -> C[i][j] = IntStream.range(0, B.length).parallel().map(k -> A[i][k] * B[k][j]).reduce(0, Integer::sum))));
+        forEachTile(C.length, C.length == 0 ? 0 : C[0].length, tile -> tile.multiply(A, B, C));
     }
 
     /**
@@ -34,7 +73,41 @@ public class MatMathImplStreams implements MatMath {
      */
     @Override
     public void add(int[][] A, int[][] B, int[][] C) {
-        IntStream.range(0, A.length).parallel().forEach(i -> IntStream.range(0, A[i].length).parallel().forEach(j -> C[i][j] = A[i][j] + B[i][j]));
+        forEachTile(A.length, A.length == 0 ? 0 : A[0].length, tile -> tile.add(A, B, C));
+    }
+
+    /**
+     * Multiplies 2 flat matrices and stores the result in a third
+     * 
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(IntMatrix A, IntMatrix B, IntMatrix C) {
+        forEachTile(C.getRows(), C.getCols(), tile -> tile.multiply(A, B, C));
+    }
+
+    /**
+     * Adds two flat matrices together and stores the result in a third
+     * 
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(IntMatrix A, IntMatrix B, IntMatrix C) {
+        forEachTile(A.getRows(), A.getCols(), tile -> tile.add(A, B, C));
+    }
+
+    /**
+     * Creates an asynchronous version of this implementation, see
+     * {@link AsyncMatMathImpl} for how its operations run and are cancelled
+     * 
+     * @return an asynchronous implementation on this one's fork/join pool
+     */
+    public AsyncMatMath async() {
+        return new AsyncMatMathImpl(pool);
     }
 
     /**
@@ -49,4 +122,11 @@ public class MatMathImplStreams implements MatMath {
         }
     }
 
+    /*
+     * a parallel stream started from inside a fork/join pool runs in that pool
+     */
+    private void forEachTile(int rows, int cols, Consumer<TileSpliterator.Tile> action) {
+        pool.submit(() -> StreamSupport.stream(new TileSpliterator(rows, cols, tileSize), true).forEach(action)).join();
+    }
+
 }
@@ -75,6 +75,65 @@ public class MatMathImplThreads implements MatMath {
         }
     }
 
+    /**
+     * Multiplies 2 flat matrices and stores the result in a third, using a
+     * thread for each cell of the result. Like the jagged version the
+     * product is added to what C already holds
+     * 
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication, zero it first
+     */
+    @Override
+    public void multiply(IntMatrix A, IntMatrix B, IntMatrix C) {
+        int numThreads = C.getRows() * C.getCols();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch end = new CountDownLatch(numThreads);
+
+        for (int i = 0; i < C.getRows(); i++) {
+            for (int j = 0; j < C.getCols(); j++) {
+                Thread t = new Thread(new FlatMultiplicationWorker(i, j, A, B, C, start, end));
+                t.start();
+            }
+        }
+
+        start.countDown();
+        try {
+            end.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds two flat matrices together and stores the result in a third, using
+     * a thread for each cell of the result
+     * 
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(IntMatrix A, IntMatrix B, IntMatrix C) {
+        int numThreads = A.getRows() * A.getCols();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch end = new CountDownLatch(numThreads);
+
+        for (int i = 0; i < A.getRows(); i++) {
+            for (int j = 0; j < A.getCols(); j++) {
+                Thread t = new Thread(new FlatAdditionWorker(i, j, A, B, C, start, end));
+                t.start();
+            }
+        }
+
+        start.countDown();
+        try {
+            end.await();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Print out a matrix
      * 
@@ -166,4 +225,90 @@ public class MatMathImplThreads implements MatMath {
             }
         }
     }
+
+    /*
+     * worker for doing flat matrix multiplication, walks a row of A and a
+     * column of B directly in their backing arrays
+     */
+    private class FlatMultiplicationWorker implements Runnable {
+
+        private int rowNum;
+        private int colNum;
+        private IntMatrix A;
+        private IntMatrix B;
+        private IntMatrix C;
+        private CountDownLatch start;
+        private CountDownLatch end;
+
+        public FlatMultiplicationWorker(int i, int j, IntMatrix first, IntMatrix second, IntMatrix result, CountDownLatch s, CountDownLatch e) {
+            rowNum = i;
+            colNum = j;
+            A = first;
+            B = second;
+            C = result;
+            start = s;
+            end = e;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await(); // wait for the signal to start
+                try {
+                    int[] a = A.getData();
+                    int[] b = B.getData();
+                    int aIndex = A.index(rowNum, 0);
+                    int bIndex = B.index(0, colNum);
+                    int bStride = B.getStride();
+                    int sum = C.get(rowNum, colNum); // adds into C, the same as the jagged path
+                    for (int k = 0; k < B.getRows(); k++, bIndex += bStride) {
+                        sum += a[aIndex + k] * b[bIndex];
+                    }
+                    C.set(rowNum, colNum, sum);
+                } finally {
+                    end.countDown(); // decrement the latch to signal that this
+                                     // thread is done
+                }
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    /*
+     * worker for doing flat matrix addition
+     */
+    private class FlatAdditionWorker implements Runnable {
+
+        private int rowNum;
+        private int colNum;
+        private IntMatrix A;
+        private IntMatrix B;
+        private IntMatrix C;
+        private CountDownLatch start;
+        private CountDownLatch end;
+
+        public FlatAdditionWorker(int i, int j, IntMatrix first, IntMatrix second, IntMatrix result, CountDownLatch s, CountDownLatch e) {
+            rowNum = i;
+            colNum = j;
+            A = first;
+            B = second;
+            C = result;
+            start = s;
+            end = e;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await(); // wait for the signal to start
+                try {
+                    C.set(rowNum, colNum, A.get(rowNum, colNum) + B.get(rowNum, colNum));
+                } finally {
+                    end.countDown(); // decrement the latch to signal that this
+                                     // thread is done
+                }
+            } catch (InterruptedException e) {
+            }
+        }
+    }
 }
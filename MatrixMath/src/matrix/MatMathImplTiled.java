@@ -0,0 +1,383 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Provides an implementation of the MatMath interface that recursively splits
+ * the matrices into cache sized tiles and works on them using a fork/join pool.
+ * Tiles of the result matrix are computed in parallel, the leaves of the
+ * recursion use a sequential blocked kernel that walks rows of B instead of
+ * columns
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathImplTiled implements MatMath {
+
+    public static final int DEFAULT_TILE_SIZE = 64; // 64x64 ints is 16KB, fits in L1/L2 along with the other tiles
+
+    private final ForkJoinPool pool;
+    private final int tileSize;
+
+    /**
+     * Creates a tiled implementation that uses the common fork/join pool and
+     * the default tile size
+     */
+    public MatMathImplTiled() {
+        this(ForkJoinPool.commonPool(), DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a tiled implementation that uses the common fork/join pool
+     *
+     * @param tileSize the largest side of a tile that is worked on sequentially
+     */
+    public MatMathImplTiled(int tileSize) {
+        this(ForkJoinPool.commonPool(), tileSize);
+    }
+
+    /**
+     * Creates a tiled implementation
+     *
+     * @param pool the fork/join pool to run the tiles on
+     * @param tileSize the largest side of a tile that is worked on sequentially
+     */
+    public MatMathImplTiled(ForkJoinPool pool, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tile size must be positive: " + tileSize);
+        }
+        this.pool = pool;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @return the largest side of a tile that is worked on sequentially
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Multiplies 2 matrices and stores the result in a third array
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(int[][] A, int[][] B, int[][] C) {
+        if (C.length == 0 || C[0].length == 0) {
+            return;
+        }
+        pool.invoke(new MultiplicationTask(A, null, 0, B, C, 0, C.length, 0, C[0].length, 0, B.length));
+    }
+
+    /*
+     * C = (A + sign * A2) * B without materializing the sum, the leaf kernel
+     * adds the two rows of the left operand as it reads them. Used by Expr
+     * for a sum or difference that is multiplied, sign is 1 or -1
+     */
+    void multiplySum(int[][] A, int[][] A2, int sign, int[][] B, int[][] C) {
+        if (C.length == 0 || C[0].length == 0) {
+            return;
+        }
+        pool.invoke(new MultiplicationTask(A, A2, sign, B, C, 0, C.length, 0, C[0].length, 0, B.length));
+    }
+
+    /**
+     * Adds two matrices together and stores the result in a third matrix
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(int[][] A, int[][] B, int[][] C) {
+        if (A.length == 0) {
+            return;
+        }
+        pool.invoke(new AdditionTask(A, B, C, 0, A.length));
+    }
+
+    /**
+     * Multiplies 2 flat matrices and stores the result in a third
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(IntMatrix A, IntMatrix B, IntMatrix C) {
+        if (C.getRows() == 0 || C.getCols() == 0) {
+            return;
+        }
+        pool.invoke(new FlatMultiplicationTask(A, B, C, 0, C.getRows(), 0, C.getCols(), 0, B.getRows()));
+    }
+
+    /**
+     * Adds two flat matrices together and stores the result in a third
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(IntMatrix A, IntMatrix B, IntMatrix C) {
+        if (A.getRows() == 0) {
+            return;
+        }
+        pool.invoke(new FlatAdditionTask(A, B, C, 0, A.getRows()));
+    }
+
+    /**
+     * Print out a matrix
+     *
+     * @param A the matrix to be printed
+     */
+    @Override
+    public void print(int[][] A) {
+        for (int[] subarray : A) {
+            System.out.println(Arrays.toString(subarray));
+        }
+    }
+
+    /*
+     * computes the block C[rowLo..rowHi)[colLo..colHi) using the columns
+     * kLo..kHi of A and rows kLo..kHi of B. splits the result block in half
+     * along its longest side and runs the halves in parallel, the k dimension
+     * is split in half as well but the halves run one after the other since
+     * they both write to the same block of C. when A2 is not null the left
+     * operand is A + sign * A2
+     */
+    private class MultiplicationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[][] A;
+        private final int[][] A2;
+        private final int sign;
+        private final int[][] B;
+        private final int[][] C;
+        private final int rowLo, rowHi;
+        private final int colLo, colHi;
+        private final int kLo, kHi;
+
+        public MultiplicationTask(int[][] first, int[][] firstAddend, int sign, int[][] second, int[][] result,
+                int rowLo, int rowHi, int colLo, int colHi, int kLo, int kHi) {
+            A = first;
+            A2 = firstAddend;
+            this.sign = sign;
+            B = second;
+            C = result;
+            this.rowLo = rowLo;
+            this.rowHi = rowHi;
+            this.colLo = colLo;
+            this.colHi = colHi;
+            this.kLo = kLo;
+            this.kHi = kHi;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = rowHi - rowLo;
+            int cols = colHi - colLo;
+            int depth = kHi - kLo;
+
+            if (rows <= tileSize && cols <= tileSize && depth <= tileSize) {
+                multiplyTile();
+            } else if (rows >= cols && rows >= depth) {
+                int mid = (rowLo + rowHi) >>> 1;
+                invokeAll(new MultiplicationTask(A, A2, sign, B, C, rowLo, mid, colLo, colHi, kLo, kHi),
+                        new MultiplicationTask(A, A2, sign, B, C, mid, rowHi, colLo, colHi, kLo, kHi));
+            } else if (cols >= depth) {
+                int mid = (colLo + colHi) >>> 1;
+                invokeAll(new MultiplicationTask(A, A2, sign, B, C, rowLo, rowHi, colLo, mid, kLo, kHi),
+                        new MultiplicationTask(A, A2, sign, B, C, rowLo, rowHi, mid, colHi, kLo, kHi));
+            } else {
+                int mid = (kLo + kHi) >>> 1;
+                new MultiplicationTask(A, A2, sign, B, C, rowLo, rowHi, colLo, colHi, kLo, mid).compute();
+                new MultiplicationTask(A, A2, sign, B, C, rowLo, rowHi, colLo, colHi, mid, kHi).compute();
+            }
+        }
+
+        /*
+         * sequential kernel for a single tile, uses i-k-j order so that the
+         * innermost loop runs along contiguous rows of B and C
+         */
+        private void multiplyTile() {
+            for (int i = rowLo; i < rowHi; i++) {
+                int[] rowA = A[i];
+                int[] rowA2 = A2 == null ? null : A2[i];
+                int[] rowC = C[i];
+                if (kLo == 0) {
+                    Arrays.fill(rowC, colLo, colHi, 0); // first k block for this tile, overwrite whatever was in C
+                }
+                for (int k = kLo; k < kHi; k++) {
+                    int a = rowA2 == null ? rowA[k] : rowA[k] + sign * rowA2[k];
+                    int[] rowB = B[k];
+                    for (int j = colLo; j < colHi; j++) {
+                        rowC[j] += a * rowB[j];
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * adds together the rows rowLo..rowHi, splitting in half until a band is
+     * about a tile worth of work
+     */
+    private class AdditionTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[][] A;
+        private final int[][] B;
+        private final int[][] C;
+        private final int rowLo, rowHi;
+
+        public AdditionTask(int[][] first, int[][] second, int[][] result, int rowLo, int rowHi) {
+            A = first;
+            B = second;
+            C = result;
+            this.rowLo = rowLo;
+            this.rowHi = rowHi;
+        }
+
+        @Override
+        protected void compute() {
+            long work = (long) (rowHi - rowLo) * A[rowLo].length;
+            if (rowHi - rowLo <= 1 || work <= (long) tileSize * tileSize) {
+                for (int i = rowLo; i < rowHi; i++) {
+                    int[] rowA = A[i];
+                    int[] rowB = B[i];
+                    int[] rowC = C[i];
+                    for (int j = 0; j < rowC.length; j++) {
+                        rowC[j] = rowA[j] + rowB[j];
+                    }
+                }
+            } else {
+                int mid = (rowLo + rowHi) >>> 1;
+                invokeAll(new AdditionTask(A, B, C, rowLo, mid), new AdditionTask(A, B, C, mid, rowHi));
+            }
+        }
+    }
+
+    /*
+     * same recursion as MultiplicationTask but over flat matrices, the leaf
+     * kernel works directly on the backing arrays
+     */
+    private class FlatMultiplicationTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IntMatrix A;
+        private final IntMatrix B;
+        private final IntMatrix C;
+        private final int rowLo, rowHi;
+        private final int colLo, colHi;
+        private final int kLo, kHi;
+
+        public FlatMultiplicationTask(IntMatrix first, IntMatrix second, IntMatrix result, int rowLo, int rowHi,
+                int colLo, int colHi, int kLo, int kHi) {
+            A = first;
+            B = second;
+            C = result;
+            this.rowLo = rowLo;
+            this.rowHi = rowHi;
+            this.colLo = colLo;
+            this.colHi = colHi;
+            this.kLo = kLo;
+            this.kHi = kHi;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = rowHi - rowLo;
+            int cols = colHi - colLo;
+            int depth = kHi - kLo;
+
+            if (rows <= tileSize && cols <= tileSize && depth <= tileSize) {
+                multiplyTile();
+            } else if (rows >= cols && rows >= depth) {
+                int mid = (rowLo + rowHi) >>> 1;
+                invokeAll(new FlatMultiplicationTask(A, B, C, rowLo, mid, colLo, colHi, kLo, kHi),
+                        new FlatMultiplicationTask(A, B, C, mid, rowHi, colLo, colHi, kLo, kHi));
+            } else if (cols >= depth) {
+                int mid = (colLo + colHi) >>> 1;
+                invokeAll(new FlatMultiplicationTask(A, B, C, rowLo, rowHi, colLo, mid, kLo, kHi),
+                        new FlatMultiplicationTask(A, B, C, rowLo, rowHi, mid, colHi, kLo, kHi));
+            } else {
+                int mid = (kLo + kHi) >>> 1;
+                new FlatMultiplicationTask(A, B, C, rowLo, rowHi, colLo, colHi, kLo, mid).compute();
+                new FlatMultiplicationTask(A, B, C, rowLo, rowHi, colLo, colHi, mid, kHi).compute();
+            }
+        }
+
+        private void multiplyTile() {
+            int[] a = A.getData();
+            int[] b = B.getData();
+            int[] c = C.getData();
+            int width = colHi - colLo;
+            for (int i = rowLo; i < rowHi; i++) {
+                int cRow = C.index(i, colLo);
+                if (kLo == 0) {
+                    Arrays.fill(c, cRow, cRow + width, 0);
+                }
+                int aRow = A.index(i, 0);
+                for (int k = kLo; k < kHi; k++) {
+                    int value = a[aRow + k];
+                    int bRow = B.index(k, colLo);
+                    for (int j = 0; j < width; j++) {
+                        c[cRow + j] += value * b[bRow + j];
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * adds together the flat rows rowLo..rowHi
+     */
+    private class FlatAdditionTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IntMatrix A;
+        private final IntMatrix B;
+        private final IntMatrix C;
+        private final int rowLo, rowHi;
+
+        public FlatAdditionTask(IntMatrix first, IntMatrix second, IntMatrix result, int rowLo, int rowHi) {
+            A = first;
+            B = second;
+            C = result;
+            this.rowLo = rowLo;
+            this.rowHi = rowHi;
+        }
+
+        @Override
+        protected void compute() {
+            int width = A.getCols();
+            long work = (long) (rowHi - rowLo) * width;
+            if (rowHi - rowLo <= 1 || work <= (long) tileSize * tileSize) {
+                int[] a = A.getData();
+                int[] b = B.getData();
+                int[] c = C.getData();
+                for (int i = rowLo; i < rowHi; i++) {
+                    int aRow = A.index(i, 0);
+                    int bRow = B.index(i, 0);
+                    int cRow = C.index(i, 0);
+                    for (int j = 0; j < width; j++) {
+                        c[cRow + j] = a[aRow + j] + b[bRow + j];
+                    }
+                }
+            } else {
+                int mid = (rowLo + rowHi) >>> 1;
+                invokeAll(new FlatAdditionTask(A, B, C, rowLo, mid), new FlatAdditionTask(A, B, C, mid, rowHi));
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Provides an implementation of the MatMath interface that computes each cell
+ * of the product as a dot product, like MatMathImplPools, but first
+ * transposes B so the dot products run over contiguous rows of both operands
+ * instead of striding down the columns of B.
+ * The transpose costs a copy of B, so it is only made once B has at least
+ * {@link #getTransposeThreshold} rows, below that the columns of B are read
+ * directly. Rows of the result are computed in parallel on a fork/join pool
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathImplTransposed implements MatMath {
+
+    /**
+     * A starting guess, not a measured crossover: no benchmark result backs
+     * it. Run TransposeBenchmark and pass the first size where transposing
+     * wins on the target machine
+     */
+    public static final int DEFAULT_TRANSPOSE_THRESHOLD = 32;
+
+    private final ForkJoinPool pool;
+    private final MatrixTranspose transposer;
+    private final int transposeThreshold;
+
+    /**
+     * Creates an implementation that uses the common fork/join pool and the
+     * default threshold
+     */
+    public MatMathImplTransposed() {
+        this(ForkJoinPool.commonPool(), DEFAULT_TRANSPOSE_THRESHOLD);
+    }
+
+    /**
+     * Creates an implementation
+     *
+     * @param pool the fork/join pool to run the rows and the transpose on
+     * @param transposeThreshold the number of rows of B from which B is transposed first, 0 always transposes
+     */
+    public MatMathImplTransposed(ForkJoinPool pool, int transposeThreshold) {
+        if (transposeThreshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative: " + transposeThreshold);
+        }
+        this.pool = pool;
+        this.transposer = new MatrixTranspose(pool);
+        this.transposeThreshold = transposeThreshold;
+    }
+
+    /**
+     * @return the number of rows of B from which B is transposed before multiplying
+     */
+    public int getTransposeThreshold() {
+        return transposeThreshold;
+    }
+
+    /**
+     * Multiplies 2 matrices and stores the result in a third array
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(int[][] A, int[][] B, int[][] C) {
+        int cols = C.length == 0 ? 0 : C[0].length;
+        if (B.length == 0) { // an empty inner dimension, and no rows of B to transpose
+            for (int[] rowC : C) {
+                Arrays.fill(rowC, 0);
+            }
+            return;
+        }
+        if (B.length < transposeThreshold) {
+            parallel(C.length, i -> {
+                int[] rowA = A[i];
+                for (int j = 0; j < cols; j++) {
+                    int sum = 0;
+                    for (int k = 0; k < B.length; k++) {
+                        sum += rowA[k] * B[k][j];
+                    }
+                    C[i][j] = sum;
+                }
+            });
+            return;
+        }
+        int[][] T = transposer.transposed(B);
+        parallel(C.length, i -> {
+            int[] rowA = A[i];
+            for (int j = 0; j < cols; j++) {
+                int[] rowT = T[j];
+                int sum = 0;
+                for (int k = 0; k < rowT.length; k++) {
+                    sum += rowA[k] * rowT[k];
+                }
+                C[i][j] = sum;
+            }
+        });
+    }
+
+    /**
+     * Adds two matrices together and stores the result in a third matrix
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(int[][] A, int[][] B, int[][] C) {
+        parallel(A.length, i -> {
+            int[] rowA = A[i], rowB = B[i], rowC = C[i];
+            for (int j = 0; j < rowC.length; j++) {
+                rowC[j] = rowA[j] + rowB[j];
+            }
+        });
+    }
+
+    /**
+     * Print out a matrix
+     *
+     * @param A the matrix to be printed
+     */
+    @Override
+    public void print(int[][] A) {
+        for (int[] subarray : A) {
+            System.out.println(Arrays.toString(subarray));
+        }
+    }
+
+    /*
+     * the work for one row of the result
+     */
+    private interface RowTask {
+        void compute(int row);
+    }
+
+    private void parallel(int rows, RowTask task) {
+        pool.submit(() -> IntStream.range(0, rows).parallel().forEach(task::compute)).join();
+    }
+}
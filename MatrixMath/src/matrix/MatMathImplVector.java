@@ -0,0 +1,243 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Provides an implementation of the MatMath interface whose add and multiply
+ * kernels use the Java Vector API, so the JIT compiles them to SIMD
+ * instructions (SSE, AVX2 or AVX-512 depending on the machine). The vector
+ * width is the preferred one of the running CPU, picked when the class is
+ * loaded, and the columns left over at the end of a row are done with scalar
+ * code. Rows of the result are worked on in parallel on a fork/join pool.
+ * The Vector API is an incubator module, so the JVM has to be started with
+ * --add-modules jdk.incubator.vector
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathImplVector implements MatMath {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a vector implementation that uses the common fork/join pool
+     */
+    public MatMathImplVector() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a vector implementation
+     *
+     * @param pool the fork/join pool to run the rows on
+     */
+    public MatMathImplVector(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @return the width in bits of the vectors the kernels use on this machine
+     */
+    public static int getVectorBitSize() {
+        return INTS.vectorBitSize();
+    }
+
+    /**
+     * @return a description of the vector shapes the kernels use on this machine
+     */
+    public static String describe() {
+        return INTS.vectorBitSize() + "-bit vectors (" + INTS.length() + " ints, " + DOUBLES.length() + " doubles per vector)";
+    }
+
+    /**
+     * Multiplies 2 matrices and stores the result in a third array
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(int[][] A, int[][] B, int[][] C) {
+        int inner = B.length;
+        pool.submit(() -> IntStream.range(0, C.length).parallel().forEach(i -> multiplyRow(A[i], B, C[i], inner))).join();
+    }
+
+    /**
+     * Adds two matrices together and stores the result in a third matrix
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(int[][] A, int[][] B, int[][] C) {
+        pool.submit(() -> IntStream.range(0, A.length).parallel().forEach(i -> addRow(A[i], 0, B[i], 0, C[i], 0, C[i].length))).join();
+    }
+
+    /**
+     * Multiplies 2 flat matrices and stores the result in a third
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(IntMatrix A, IntMatrix B, IntMatrix C) {
+        pool.submit(() -> IntStream.range(0, C.getRows()).parallel().forEach(i -> multiplyRow(A, B, C, i))).join();
+    }
+
+    /**
+     * Adds two flat matrices together and stores the result in a third
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(IntMatrix A, IntMatrix B, IntMatrix C) {
+        pool.submit(() -> IntStream.range(0, A.getRows()).parallel().forEach(i -> addRow(A.getData(), A.index(i, 0),
+                B.getData(), B.index(i, 0), C.getData(), C.index(i, 0), C.getCols()))).join();
+    }
+
+    /**
+     * Multiplies 2 flat matrices of doubles and stores the result in a third
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(DoubleMatrix A, DoubleMatrix B, DoubleMatrix C) {
+        pool.submit(() -> IntStream.range(0, C.getRows()).parallel().forEach(i -> multiplyRow(A, B, C, i))).join();
+    }
+
+    /**
+     * Adds two flat matrices of doubles together and stores the result in a
+     * third
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(DoubleMatrix A, DoubleMatrix B, DoubleMatrix C) {
+        pool.submit(() -> IntStream.range(0, A.getRows()).parallel().forEach(i -> addRow(A.getData(), A.index(i, 0),
+                B.getData(), B.index(i, 0), C.getData(), C.index(i, 0), C.getCols()))).join();
+    }
+
+    /**
+     * Print out a matrix
+     *
+     * @param A the matrix to be printed
+     */
+    @Override
+    public void print(int[][] A) {
+        for (int[] subarray : A) {
+            System.out.println(Arrays.toString(subarray));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MatMathImplVector using " + describe();
+    }
+
+    /*
+     * computes one row of C a vector of columns at a time, the partial sums
+     * stay in a register while walking down the rows of B
+     */
+    private static void multiplyRow(int[] rowA, int[][] B, int[] rowC, int inner) {
+        int cols = rowC.length;
+        int upper = INTS.loopBound(cols);
+        int j = 0;
+        for (; j < upper; j += INTS.length()) {
+            IntVector sum = IntVector.zero(INTS);
+            for (int k = 0; k < inner; k++) {
+                sum = IntVector.fromArray(INTS, B[k], j).mul(rowA[k]).add(sum);
+            }
+            sum.intoArray(rowC, j);
+        }
+        for (; j < cols; j++) { // scalar tail
+            int sum = 0;
+            for (int k = 0; k < inner; k++) {
+                sum += rowA[k] * B[k][j];
+            }
+            rowC[j] = sum;
+        }
+    }
+
+    private static void multiplyRow(IntMatrix A, IntMatrix B, IntMatrix C, int i) {
+        int[] a = A.getData(), b = B.getData(), c = C.getData();
+        int aRow = A.index(i, 0), cRow = C.index(i, 0);
+        int inner = B.getRows(), cols = C.getCols(), bStride = B.getStride();
+        int upper = INTS.loopBound(cols);
+        int j = 0;
+        for (; j < upper; j += INTS.length()) {
+            IntVector sum = IntVector.zero(INTS);
+            for (int k = 0, bIndex = B.index(0, j); k < inner; k++, bIndex += bStride) {
+                sum = IntVector.fromArray(INTS, b, bIndex).mul(a[aRow + k]).add(sum);
+            }
+            sum.intoArray(c, cRow + j);
+        }
+        for (; j < cols; j++) {
+            int sum = 0;
+            for (int k = 0, bIndex = B.index(0, j); k < inner; k++, bIndex += bStride) {
+                sum += a[aRow + k] * b[bIndex];
+            }
+            c[cRow + j] = sum;
+        }
+    }
+
+    private static void multiplyRow(DoubleMatrix A, DoubleMatrix B, DoubleMatrix C, int i) {
+        double[] a = A.getData(), b = B.getData(), c = C.getData();
+        int aRow = A.index(i, 0), cRow = C.index(i, 0);
+        int inner = B.getRows(), cols = C.getCols(), bStride = B.getStride();
+        int upper = DOUBLES.loopBound(cols);
+        int j = 0;
+        for (; j < upper; j += DOUBLES.length()) {
+            DoubleVector sum = DoubleVector.zero(DOUBLES);
+            for (int k = 0, bIndex = B.index(0, j); k < inner; k++, bIndex += bStride) {
+                sum = DoubleVector.fromArray(DOUBLES, b, bIndex).fma(DoubleVector.broadcast(DOUBLES, a[aRow + k]), sum);
+            }
+            sum.intoArray(c, cRow + j);
+        }
+        for (; j < cols; j++) {
+            double sum = 0;
+            for (int k = 0, bIndex = B.index(0, j); k < inner; k++, bIndex += bStride) {
+                sum = Math.fma(a[aRow + k], b[bIndex], sum); // same rounding as the fma in the vector lanes
+            }
+            c[cRow + j] = sum;
+        }
+    }
+
+    private static void addRow(int[] a, int aPos, int[] b, int bPos, int[] c, int cPos, int length) {
+        int upper = INTS.loopBound(length);
+        int j = 0;
+        for (; j < upper; j += INTS.length()) {
+            IntVector.fromArray(INTS, a, aPos + j).add(IntVector.fromArray(INTS, b, bPos + j)).intoArray(c, cPos + j);
+        }
+        for (; j < length; j++) {
+            c[cPos + j] = a[aPos + j] + b[bPos + j];
+        }
+    }
+
+    private static void addRow(double[] a, int aPos, double[] b, int bPos, double[] c, int cPos, int length) {
+        int upper = DOUBLES.loopBound(length);
+        int j = 0;
+        for (; j < upper; j += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, a, aPos + j).add(DoubleVector.fromArray(DOUBLES, b, bPos + j)).intoArray(c, cPos + j);
+        }
+        for (; j < length; j++) {
+            c[cPos + j] = a[aPos + j] + b[bPos + j];
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package matrix;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides an implementation of the MatMath interface that, like
+ * MatMathImplThreads, starts a thread per piece of work, but uses virtual
+ * threads so thousands of them cost little more than the tasks themselves.
+ * The piece of work each thread gets is configurable: a single cell of the
+ * result, a row, or a square tile. Every call waits for exactly the threads it
+ * started before returning, even when it is interrupted: blocks that have not
+ * started are skipped, the running ones finish, and the call then throws a
+ * CompletionException. Virtual threads need JDK 21, on older JDKs the
+ * tasks run on a work stealing pool instead, see {@link #usesVirtualThreads}.
+ * That pool is created once per instance and shut down by closing it
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathImplVirtualThreads implements MatMath, AutoCloseable {
+
+    /**
+     * How much of the result each thread computes
+     */
+    public enum Granularity {
+        CELL, ROW, TILE
+    }
+
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutor();
+
+    private final Granularity granularity;
+    private final int tileSize;
+    private final ExecutorService fallback; // the work stealing pool used without virtual threads, null with them
+
+    /**
+     * Creates an implementation that starts a virtual thread per row
+     */
+    public MatMathImplVirtualThreads() {
+        this(Granularity.ROW, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a virtual thread implementation
+     *
+     * @param granularity how much of the result each thread computes
+     * @param tileSize the side of a tile when the granularity is TILE
+     */
+    public MatMathImplVirtualThreads(Granularity granularity, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tile size must be positive: " + tileSize);
+        }
+        this.granularity = granularity;
+        this.tileSize = tileSize;
+        this.fallback = NEW_VIRTUAL_EXECUTOR == null ? Executors.newWorkStealingPool() : null;
+    }
+
+    /**
+     * @return true if this JVM supports virtual threads, otherwise tasks run on a work stealing pool
+     */
+    public static boolean usesVirtualThreads() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
+    /**
+     * Multiplies 2 matrices and stores the result in a third array
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(int[][] A, int[][] B, int[][] C) {
+        int cols = C.length == 0 ? 0 : C[0].length;
+        run(C.length, cols, (rowLo, rowHi, colLo, colHi) -> {
+            for (int i = rowLo; i < rowHi; i++) {
+                int[] rowA = A[i];
+                for (int j = colLo; j < colHi; j++) {
+                    int sum = 0;
+                    for (int k = 0; k < B.length; k++) {
+                        sum += rowA[k] * B[k][j];
+                    }
+                    C[i][j] = sum;
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds two matrices together and stores the result in a third matrix
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(int[][] A, int[][] B, int[][] C) {
+        int cols = A.length == 0 ? 0 : A[0].length;
+        run(A.length, cols, (rowLo, rowHi, colLo, colHi) -> {
+            for (int i = rowLo; i < rowHi; i++) {
+                for (int j = colLo; j < colHi; j++) {
+                    C[i][j] = A[i][j] + B[i][j];
+                }
+            }
+        });
+    }
+
+    /**
+     * Print out a matrix
+     *
+     * @param A the matrix to be printed
+     */
+    @Override
+    public void print(int[][] A) {
+        for (int[] subarray : A) {
+            System.out.println(Arrays.toString(subarray));
+        }
+    }
+
+    /**
+     * Shuts down the work stealing pool used when there are no virtual
+     * threads, waiting for tasks that are still running
+     */
+    @Override
+    public void close() {
+        if (fallback == null) {
+            return;
+        }
+        fallback.shutdown();
+        try {
+            fallback.awaitTermination(2, TimeUnit.MINUTES); // wait 2 minutes to shut down
+        } catch (InterruptedException e) {
+            fallback.shutdownNow(); // force shut down if we get interrupted
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * the work done by one thread, a block of the result
+     */
+    private interface Block {
+        void compute(int rowLo, int rowHi, int colLo, int colHi);
+    }
+
+    /*
+     * starts a thread for each block of a rows x cols result and waits for all
+     * of them
+     */
+    private void run(int rows, int cols, Block block) {
+        int height = granularity == Granularity.TILE ? tileSize : 1;
+        int width = granularity == Granularity.CELL ? 1 : granularity == Granularity.ROW ? Math.max(cols, 1) : tileSize;
+        int blockRows = (rows + height - 1) / height;
+        int blockCols = cols == 0 ? 0 : (cols + width - 1) / width;
+
+        TaskGroup tasks = new TaskGroup(blockRows * blockCols);
+        ExecutorService executor = newExecutor();
+        try {
+            for (int bi = 0; bi < blockRows; bi++) {
+                for (int bj = 0; bj < blockCols; bj++) {
+                    int rowLo = bi * height, colLo = bj * width;
+                    int rowHi = Math.min(rowLo + height, rows), colHi = Math.min(colLo + width, cols);
+                    executor.execute(tasks.task(() -> block.compute(rowLo, rowHi, colLo, colHi)));
+                }
+            }
+            tasks.await(); // dont publish the result until all threads have finished working
+        } catch (InterruptedException e) {
+            finishStarted(executor, tasks);
+            Thread.currentThread().interrupt();
+            throw new CompletionException("interrupted before every block finished, the result is incomplete", e);
+        } finally {
+            if (executor != fallback) {
+                executor.shutdown(); // a virtual thread executor per call is cheap, the shared pool lives until close
+            }
+        }
+    }
+
+    /*
+     * after an interrupt, skips the blocks that have not started and waits
+     * for the ones that have, so no thread is still writing the result once
+     * the call fails. further interrupts while waiting are ignored, the
+     * caller restores the flag
+     */
+    private void finishStarted(ExecutorService executor, TaskGroup tasks) {
+        tasks.cancel();
+        if (executor != fallback) {
+            executor.shutdownNow();
+        }
+        while (true) {
+            try {
+                if (executor != fallback) {
+                    executor.awaitTermination(2, TimeUnit.MINUTES); // wait 2 minutes for the running blocks
+                } else {
+                    tasks.await(); // the shared pool stays up, wait for this call's tasks only
+                }
+                return;
+            } catch (InterruptedException again) {
+                // keep waiting
+            } catch (CompletionException failed) {
+                return; // a block failed, the interrupt is reported instead
+            }
+        }
+    }
+
+    private ExecutorService newExecutor() {
+        if (fallback != null) {
+            return fallback;
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot create a virtual thread executor", e);
+        }
+    }
+
+    /*
+     * the tree is built for JDK 17, so the JDK 21 factory is looked up at run
+     * time
+     */
+    private static Method findVirtualExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
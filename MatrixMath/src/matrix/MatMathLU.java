@@ -0,0 +1,173 @@
+package matrix;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Parallel blocked LU decomposition with partial pivoting for double
+ * matrices, and the determinant, solve and inverse built on it. The
+ * decomposition is right looking: for each block of columns the panel below
+ * the diagonal is factored with row pivoting, the block row to its right is
+ * solved against the panel's unit lower triangle, and then the trailing
+ * matrix is updated with one in place gemm, A22 -= L21 * U12. The trailing
+ * update is where nearly all of the work is, and it runs in parallel row
+ * bands, as do the row eliminations of tall panels and the triangular solve
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathLU {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private final Blas blas;
+    private final int blockSize;
+
+    /**
+     * Creates a decomposer that uses the common fork/join pool and the
+     * default block size
+     */
+    public MatMathLU() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a decomposer
+     *
+     * @param pool the fork/join pool to run on
+     * @param blockSize the number of columns factored as one panel
+     */
+    public MatMathLU(ForkJoinPool pool, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("block size must be positive: " + blockSize);
+        }
+        this.blas = new Blas(pool);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Decomposes a square matrix, A is not changed
+     *
+     * @param A the matrix to decompose
+     * @return the decomposition PA = LU
+     */
+    public LUDecomposition decompose(double[][] A) {
+        int n = A.length;
+        double[] a = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            if (A[i].length != n) {
+                throw new IllegalArgumentException("matrix must be square, row " + i + " has " + A[i].length + " columns and there are " + n + " rows");
+            }
+            System.arraycopy(A[i], 0, a, i * n, n);
+        }
+        int[] permutation = new int[n];
+        for (int i = 0; i < n; i++) {
+            permutation[i] = i;
+        }
+        int sign = 1;
+        boolean singular = false;
+
+        for (int k0 = 0; k0 < n; k0 += blockSize) {
+            int start = k0;
+            int kb = Math.min(blockSize, n - start);
+            int end = start + kb;
+
+            // factor the panel, columns k0..end of rows k0..n
+            for (int j = k0; j < end; j++) {
+                int pivot = j;
+                for (int i = j + 1; i < n; i++) {
+                    if (Math.abs(a[i * n + j]) > Math.abs(a[pivot * n + j])) {
+                        pivot = i;
+                    }
+                }
+                if (pivot != j) {
+                    swapRows(a, n, j, pivot);
+                    int temp = permutation[j];
+                    permutation[j] = permutation[pivot];
+                    permutation[pivot] = temp;
+                    sign = -sign;
+                }
+                double diagonal = a[j * n + j];
+                if (diagonal == 0) {
+                    singular = true; // nothing to eliminate with, the column is already zero below the diagonal
+                    continue;
+                }
+                int col = j;
+                int below = n - j - 1;
+                blas.invoke(below, end - j, (lo, hi) -> {
+                    int rowJ = col * n;
+                    for (int i = col + 1 + lo; i < col + 1 + hi; i++) {
+                        int row = i * n;
+                        double l = a[row + col] / diagonal;
+                        a[row + col] = l;
+                        for (int c = col + 1; c < end; c++) {
+                            a[row + c] -= l * a[rowJ + c];
+                        }
+                    }
+                });
+            }
+            if (end == n) {
+                break;
+            }
+
+            // U12 = L11^-1 A12, each band of columns to the right of the panel on its own
+            int right = n - end;
+            blas.invoke(right, (long) kb * kb, (lo, hi) -> {
+                for (int i = start + 1; i < end; i++) {
+                    int row = i * n;
+                    for (int r = start; r < i; r++) {
+                        double l = a[row + r];
+                        int rowR = r * n;
+                        for (int c = end + lo; c < end + hi; c++) {
+                            a[row + c] -= l * a[rowR + c];
+                        }
+                    }
+                }
+            });
+
+            // A22 -= L21 * U12
+            DoubleMatrix L21 = new DoubleMatrix(a, end * n + k0, right, kb, n);
+            DoubleMatrix U12 = new DoubleMatrix(a, k0 * n + end, kb, right, n);
+            DoubleMatrix A22 = new DoubleMatrix(a, end * n + end, right, right, n);
+            blas.gemm(false, false, -1.0, L21, U12, 1.0, A22);
+        }
+        return new LUDecomposition(blas, n, a, permutation, sign, singular);
+    }
+
+    /**
+     * @param A a square matrix
+     * @return the determinant of A
+     */
+    public double det(double[][] A) {
+        return decompose(A).det();
+    }
+
+    /**
+     * Solves Ax = b
+     *
+     * @param A a square matrix
+     * @param b the right hand side
+     * @return x
+     * @throws ArithmeticException if A is singular
+     */
+    public double[] solve(double[][] A, double[] b) {
+        return decompose(A).solve(b);
+    }
+
+    /**
+     * @param A a square matrix
+     * @return the inverse of A
+     * @throws ArithmeticException if A is singular
+     */
+    public double[][] inverse(double[][] A) {
+        return decompose(A).inverse();
+    }
+
+    private static void swapRows(double[] a, int n, int i, int j) {
+        int rowI = i * n, rowJ = j * n;
+        for (int c = 0; c < n; c++) {
+            double temp = a[rowI + c];
+            a[rowI + c] = a[rowJ + c];
+            a[rowJ + c] = temp;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Provides matrix multiplication and addition for long operands that accumulate
+ * and store their results as long, for values that do not fit in an int. Rows
+ * of the result are computed in parallel on a fork/join pool, each one
+ * sequentially in i-k-j order so B is read along its rows. Generated from
+ * templates/MatMathPrimitive.java.template, edit the template and run
+ * templates/GenerateMatMath.java instead of editing this file
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathLong {
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates an implementation that uses the common fork/join pool
+     */
+    public MatMathLong() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an implementation
+     *
+     * @param pool the fork/join pool to run the rows on
+     */
+    public MatMathLong(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Multiplies 2 matrices and stores the result in a third array
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    public void multiply(long[][] A, long[][] B, long[][] C) {
+        int cols = C.length == 0 ? 0 : C[0].length;
+        if (A.length != C.length || (A.length > 0 && A[0].length != B.length) || (B.length > 0 && B[0].length != cols)) {
+            throw new IllegalArgumentException("cannot multiply " + A.length + "x" + (A.length == 0 ? 0 : A[0].length) + " by " + B.length + "x" + (B.length == 0 ? 0 : B[0].length) + " into " + C.length + "x" + cols);
+        }
+        parallel(C.length, i -> {
+            long[] rowA = A[i];
+            long[] rowC = C[i];
+            Arrays.fill(rowC, 0);
+            for (int k = 0; k < B.length; k++) {
+                long a = rowA[k];
+                long[] rowB = B[k];
+                for (int j = 0; j < cols; j++) {
+                    rowC[j] += a * rowB[j];
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds two matrices together and stores the result in a third matrix
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    public void add(long[][] A, long[][] B, long[][] C) {
+        parallel(A.length, i -> {
+            long[] rowA = A[i], rowB = B[i];
+            long[] rowC = C[i];
+            for (int j = 0; j < rowC.length; j++) {
+                rowC[j] = rowA[j] + rowB[j];
+            }
+        });
+    }
+
+    /**
+     * Print out a matrix
+     *
+     * @param A the matrix to be printed
+     */
+    public void print(long[][] A) {
+        for (long[] subarray : A) {
+            System.out.println(Arrays.toString(subarray));
+        }
+    }
+
+    /*
+     * the work for one row of the result
+     */
+    private interface RowTask {
+        void compute(int row);
+    }
+
+    private void parallel(int rows, RowTask task) {
+        pool.submit(() -> IntStream.range(0, rows).parallel().forEach(task::compute)).join();
+    }
+}
@@ -0,0 +1,272 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Raises square matrices to integer powers and applies a matrix to a vector
+ * over and over. A^k is computed by exponentiation by squaring, reading the
+ * bits of k from the top: the running product is squared for every bit and
+ * multiplied by A for every bit that is set, which is about 2 log2(k)
+ * products instead of k - 1. The running product ping-pongs between the
+ * result matrix and one scratch matrix, so no array is allocated per product,
+ * and the one it starts in is picked so the last product lands in the result.
+ * Int products run on the tiled fork/join kernel and double products on the
+ * BLAS gemm. Int powers wrap on overflow the same way MatMath.multiply does
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatMathPower {
+
+    private final MatMath tiled;
+    private final Blas blas;
+
+    /**
+     * Creates a power engine that uses the common fork/join pool and the
+     * default tile size
+     */
+    public MatMathPower() {
+        this(ForkJoinPool.commonPool(), MatMathImplTiled.DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a power engine
+     *
+     * @param pool the fork/join pool to run the products on
+     * @param tileSize the largest side of a tile of an int product that is worked on sequentially
+     */
+    public MatMathPower(ForkJoinPool pool, int tileSize) {
+        this.tiled = new MatMathImplTiled(pool, tileSize);
+        this.blas = new Blas(pool);
+    }
+
+    /**
+     * Receives the vector after every step of an iteration. The vector is a
+     * buffer that the next step overwrites, copy it to keep it
+     */
+    public interface IntStep {
+        void accept(int step, int[] x);
+    }
+
+    /**
+     * Receives the vector after every step of an iteration. The vector is a
+     * buffer that the next step overwrites, copy it to keep it
+     */
+    public interface DoubleStep {
+        void accept(int step, double[] x);
+    }
+
+    /**
+     * @param A a square matrix
+     * @param k the power, at least 0
+     * @return A^k, the identity when k is 0
+     */
+    public int[][] power(int[][] A, int k) {
+        int[][] C = new int[A.length][A.length];
+        power(A, k, C);
+        return C;
+    }
+
+    /**
+     * C = A^k, computed with one scratch matrix
+     *
+     * @param A a square matrix
+     * @param k the power, at least 0
+     * @param C the matrix that stores the result, must not be A
+     */
+    public void power(int[][] A, int k, int[][] C) {
+        int n = checkPower(A.length, A.length == 0 ? 0 : A[0].length, k, C.length, C.length == 0 ? 0 : C[0].length);
+        if (A == C) {
+            throw new IllegalArgumentException("the result must not be the matrix being raised to a power");
+        }
+        if (k <= 1) {
+            for (int i = 0; i < n; i++) {
+                if (k == 0) {
+                    Arrays.fill(C[i], 0);
+                    C[i][i] = 1;
+                } else {
+                    System.arraycopy(A[i], 0, C[i], 0, n);
+                }
+            }
+            return;
+        }
+        int[][] scratch = new int[n][n];
+        int[][] current = A;
+        int[][] next = products(k) % 2 == 1 ? C : scratch;
+        for (int bit = topBit(k) - 1; bit >= 0; bit--) {
+            tiled.multiply(current, current, next);
+            current = next;
+            next = current == C ? scratch : C;
+            if ((k >>> bit & 1) == 1) {
+                tiled.multiply(current, A, next);
+                current = next;
+                next = current == C ? scratch : C;
+            }
+        }
+    }
+
+    /**
+     * @param A a square matrix
+     * @param k the power, at least 0
+     * @return A^k, the identity when k is 0
+     */
+    public double[][] power(double[][] A, int k) {
+        double[][] C = new double[A.length][A.length];
+        power(A, k, C);
+        return C;
+    }
+
+    /**
+     * C = A^k, computed with one scratch matrix
+     *
+     * @param A a square matrix
+     * @param k the power, at least 0
+     * @param C the matrix that stores the result, must not be A
+     */
+    public void power(double[][] A, int k, double[][] C) {
+        int n = checkPower(A.length, A.length == 0 ? 0 : A[0].length, k, C.length, C.length == 0 ? 0 : C[0].length);
+        if (A == C) {
+            throw new IllegalArgumentException("the result must not be the matrix being raised to a power");
+        }
+        if (k <= 1) {
+            for (int i = 0; i < n; i++) {
+                if (k == 0) {
+                    Arrays.fill(C[i], 0);
+                    C[i][i] = 1;
+                } else {
+                    System.arraycopy(A[i], 0, C[i], 0, n);
+                }
+            }
+            return;
+        }
+        double[][] scratch = new double[n][n];
+        double[][] current = A;
+        double[][] next = products(k) % 2 == 1 ? C : scratch;
+        for (int bit = topBit(k) - 1; bit >= 0; bit--) {
+            blas.gemm(false, false, 1.0, current, current, 0.0, next);
+            current = next;
+            next = current == C ? scratch : C;
+            if ((k >>> bit & 1) == 1) {
+                blas.gemm(false, false, 1.0, current, A, 0.0, next);
+                current = next;
+                next = current == C ? scratch : C;
+            }
+        }
+    }
+
+    /**
+     * Applies A to x steps times, x(t + 1) = A x(t), with two vector buffers
+     *
+     * @param A a square matrix
+     * @param x the starting vector, it is not changed
+     * @param steps the number of times A is applied, at least 0
+     * @return A^steps x
+     */
+    public int[] iterate(int[][] A, int[] x, int steps) {
+        return iterate(A, x, steps, null);
+    }
+
+    /**
+     * Applies A to x steps times, x(t + 1) = A x(t), with two vector buffers,
+     * handing each vector to a callback as soon as it is computed
+     *
+     * @param A a square matrix
+     * @param x the starting vector, it is not changed
+     * @param steps the number of times A is applied, at least 0
+     * @param each called with 1, A x, then 2, A^2 x and so on, may be null
+     * @return A^steps x
+     */
+    public int[] iterate(int[][] A, int[] x, int steps, IntStep each) {
+        int n = checkIterate(A.length, A.length == 0 ? 0 : A[0].length, x.length, steps);
+        int[] current = x.clone();
+        int[] next = new int[n];
+        for (int step = 1; step <= steps; step++) {
+            blas.gemv(1, A, current, 0, next);
+            int[] done = next;
+            next = current;
+            current = done;
+            if (each != null) {
+                each.accept(step, current);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Applies A to x steps times, x(t + 1) = A x(t), with two vector buffers
+     *
+     * @param A a square matrix
+     * @param x the starting vector, it is not changed
+     * @param steps the number of times A is applied, at least 0
+     * @return A^steps x
+     */
+    public double[] iterate(double[][] A, double[] x, int steps) {
+        return iterate(A, x, steps, null);
+    }
+
+    /**
+     * Applies A to x steps times, x(t + 1) = A x(t), with two vector buffers,
+     * handing each vector to a callback as soon as it is computed. For a
+     * Markov chain with a row stochastic transition matrix P, pass the
+     * transpose of P
+     *
+     * @param A a square matrix
+     * @param x the starting vector, it is not changed
+     * @param steps the number of times A is applied, at least 0
+     * @param each called with 1, A x, then 2, A^2 x and so on, may be null
+     * @return A^steps x
+     */
+    public double[] iterate(double[][] A, double[] x, int steps, DoubleStep each) {
+        int n = checkIterate(A.length, A.length == 0 ? 0 : A[0].length, x.length, steps);
+        double[] current = x.clone();
+        double[] next = new double[n];
+        for (int step = 1; step <= steps; step++) {
+            blas.gemv(1.0, A, current, 0.0, next);
+            double[] done = next;
+            next = current;
+            current = done;
+            if (each != null) {
+                each.accept(step, current);
+            }
+        }
+        return current;
+    }
+
+    /*
+     * the number of products the square and multiply loop does for k
+     */
+    private static int products(int k) {
+        return topBit(k) + Integer.bitCount(k) - 1;
+    }
+
+    private static int topBit(int k) {
+        return 31 - Integer.numberOfLeadingZeros(k);
+    }
+
+    private static int checkPower(int rows, int cols, int k, int resultRows, int resultCols) {
+        if (k < 0) {
+            throw new IllegalArgumentException("power must not be negative: " + k);
+        }
+        if (rows != cols) {
+            throw new IllegalArgumentException("matrix must be square: " + rows + "x" + cols);
+        }
+        if (resultRows != rows || resultCols != cols) {
+            throw new IllegalArgumentException("result is " + resultRows + "x" + resultCols + ", expected " + rows + "x" + cols);
+        }
+        return rows;
+    }
+
+    private static int checkIterate(int rows, int cols, int length, int steps) {
+        if (steps < 0) {
+            throw new IllegalArgumentException("steps must not be negative: " + steps);
+        }
+        if (rows != cols) {
+            throw new IllegalArgumentException("matrix must be square: " + rows + "x" + cols);
+        }
+        if (length != cols) {
+            throw new IllegalArgumentException("vector has " + length + " elements, expected " + cols);
+        }
+        return rows;
+    }
+}
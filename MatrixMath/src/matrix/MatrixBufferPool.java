@@ -0,0 +1,82 @@
+package matrix;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of result matrices keyed by shape, so temporaries used while
+ * evaluating expressions can be handed back and reused instead of being
+ * allocated for every operation. Matrices handed out are always zero filled
+ * since some MatMath implementations accumulate into their result
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatrixBufferPool {
+
+    private final Map<Long, ArrayDeque<int[][]>> free = new HashMap<>();
+    private final int maxPerShape;
+
+    /**
+     * Creates a pool that keeps up to 4 spare matrices of each shape
+     */
+    public MatrixBufferPool() {
+        this(4);
+    }
+
+    /**
+     * Creates a pool
+     *
+     * @param maxPerShape the most spare matrices of one shape to hold on to
+     */
+    public MatrixBufferPool(int maxPerShape) {
+        this.maxPerShape = maxPerShape;
+    }
+
+    /**
+     * Takes a zero filled matrix from the pool, allocating one if there are no
+     * spares of that shape
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @return a zero filled rows x cols matrix
+     */
+    public int[][] acquire(int rows, int cols) {
+        int[][] M;
+        synchronized (this) {
+            ArrayDeque<int[][]> spares = free.get(key(rows, cols));
+            M = spares == null ? null : spares.poll();
+        }
+        if (M == null) {
+            return new int[rows][cols];
+        }
+        for (int[] row : M) {
+            Arrays.fill(row, 0);
+        }
+        return M;
+    }
+
+    /**
+     * Hands a matrix back to the pool, it must not be used by the caller
+     * afterwards
+     *
+     * @param M the matrix to give back
+     */
+    public void release(int[][] M) {
+        if (M.length == 0) {
+            return;
+        }
+        synchronized (this) {
+            ArrayDeque<int[][]> spares = free.computeIfAbsent(key(M.length, M[0].length), k -> new ArrayDeque<>());
+            if (spares.size() < maxPerShape) {
+                spares.push(M);
+            }
+        }
+    }
+
+    private static long key(int rows, int cols) {
+        return ((long) rows << 32) | (cols & 0xffffffffL);
+    }
+}
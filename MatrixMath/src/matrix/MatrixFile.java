@@ -0,0 +1,376 @@
+package matrix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A matrix stored in a binary file and accessed through memory mapped views,
+ * so it can be bigger than the heap. The file starts with a 32 byte header
+ * (all little endian ints):
+ *
+ * <pre>
+ * magic 'MATX' | version | element type | layout | rows | cols | tile size | reserved
+ * </pre>
+ *
+ * followed by the elements, either row-major or as a grid of tile size x tile
+ * size tiles stored one after the other in row-major order of tiles, each tile
+ * row-major inside and padded with zeros at the right and bottom edges. Only
+ * int matrices exist for now, the element type is in the header so other
+ * types can be added without changing the format. The payload is mapped once
+ * when the file is opened, in windows of 1GB, and every tile and row is copied
+ * in and out of those windows, so no mapping is made per access
+ *
+ * @author Peter Swantek
+ *
+ */
+public final class MatrixFile implements AutoCloseable {
+
+    public static final int HEADER_BYTES = 32;
+    private static final int MAGIC = 0x4D415458; // "MATX"
+    private static final int VERSION = 1;
+    private static final int WINDOW_INTS = 1 << 28; // ints in one mapped window of the payload, 1GB
+
+    /**
+     * How the elements follow the header
+     */
+    public enum Layout {
+        ROW_MAJOR, TILED
+    }
+
+    /**
+     * The type of the elements
+     */
+    public enum ElementType {
+        INT(4);
+
+        private final int bytes;
+
+        ElementType(int bytes) {
+            this.bytes = bytes;
+        }
+
+        public int getBytes() {
+            return bytes;
+        }
+    }
+
+    private final FileChannel channel;
+    private final boolean writable;
+    private final ElementType elementType;
+    private final Layout layout;
+    private final int rows;
+    private final int cols;
+    private final int tileSize;
+    private final IntBuffer[] windows; // the payload, window w holds the ints from w * WINDOW_INTS
+
+    private MatrixFile(FileChannel channel, boolean writable, ElementType elementType, Layout layout, int rows, int cols, int tileSize)
+            throws IOException {
+        this.channel = channel;
+        this.writable = writable;
+        this.elementType = elementType;
+        this.layout = layout;
+        this.rows = rows;
+        this.cols = cols;
+        this.tileSize = tileSize;
+        long ints = payloadBytes() / 4;
+        this.windows = new IntBuffer[(int) ((ints + WINDOW_INTS - 1) / WINDOW_INTS)];
+        if (channel.size() < HEADER_BYTES + payloadBytes()) {
+            return; // open reports the truncated file
+        }
+        for (int w = 0; w < windows.length; w++) {
+            long count = Math.min(WINDOW_INTS, ints - (long) w * WINDOW_INTS);
+            MappedByteBuffer bytes = channel.map(writable ? MapMode.READ_WRITE : MapMode.READ_ONLY,
+                    HEADER_BYTES + (long) w * WINDOW_INTS * 4, count * 4);
+            windows[w] = bytes.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+    }
+
+    /**
+     * Creates a new zero filled int matrix file, replacing any file already
+     * there
+     *
+     * @param path where to create the file
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param layout how to lay out the elements
+     * @param tileSize side of the tiles the matrix is read and written in
+     * @return the open file
+     * @throws IOException if the file cannot be created
+     */
+    public static MatrixFile create(Path path, int rows, int cols, Layout layout, int tileSize) throws IOException {
+        if (rows < 0 || cols < 0 || tileSize < 1) {
+            throw new IllegalArgumentException("bad shape: " + rows + "x" + cols + " tile " + tileSize);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(ElementType.INT.ordinal()).putInt(layout.ordinal())
+                    .putInt(rows).putInt(cols).putInt(tileSize).putInt(0).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            long payload = payloadBytes(ElementType.INT, layout, rows, cols, tileSize);
+            if (payload > 0) { // grow the file, the new space reads as zeros
+                channel.write(ByteBuffer.allocate(1), HEADER_BYTES + payload - 1);
+            }
+            return new MatrixFile(channel, true, ElementType.INT, layout, rows, cols, tileSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing matrix file
+     *
+     * @param path the file to open
+     * @param writable whether tiles will be written
+     * @return the open file
+     * @throws IOException if the file cannot be read or is not a matrix file
+     */
+    public static MatrixFile open(Path path, boolean writable) throws IOException {
+        FileChannel channel = writable ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException(path + " is too short to be a matrix file");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a matrix file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + " has unsupported version " + version);
+            }
+            int type = header.getInt(), order = header.getInt();
+            int rows = header.getInt(), cols = header.getInt(), tileSize = header.getInt();
+            if (type < 0 || type >= ElementType.values().length || order < 0 || order >= Layout.values().length || rows < 0 || cols < 0
+                    || tileSize < 1) {
+                throw new IOException(path + " has a malformed header: element type " + type + ", layout " + order + ", " + rows + "x"
+                        + cols + ", tile size " + tileSize);
+            }
+            MatrixFile file = new MatrixFile(channel, writable, ElementType.values()[type], Layout.values()[order], rows, cols, tileSize);
+            if (channel.size() < HEADER_BYTES + file.payloadBytes()) {
+                throw new IOException(path + " is truncated");
+            }
+            return file;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a matrix to a new file. Rows are copied straight into the mapped
+     * file
+     *
+     * @param path where to create the file
+     * @param A the matrix to write
+     * @param layout how to lay out the elements
+     * @param tileSize side of the tiles the matrix is read and written in
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(Path path, int[][] A, Layout layout, int tileSize) throws IOException {
+        int cols = A.length == 0 ? 0 : A[0].length;
+        try (MatrixFile file = create(path, A.length, cols, layout, tileSize)) {
+            if (layout == Layout.TILED) {
+                int[] tile = new int[tileSize * tileSize];
+                for (int ti = 0; ti < file.getTileRows(); ti++) {
+                    for (int tj = 0; tj < file.getTileCols(); tj++) {
+                        Arrays.fill(tile, 0);
+                        int h = Math.min(tileSize, A.length - ti * tileSize);
+                        int w = Math.min(tileSize, cols - tj * tileSize);
+                        for (int r = 0; r < h; r++) {
+                            System.arraycopy(A[ti * tileSize + r], tj * tileSize, tile, r * tileSize, w);
+                        }
+                        file.writeTile(ti, tj, tile);
+                    }
+                }
+            } else {
+                for (int r = 0; r < A.length; r++) {
+                    file.put((long) r * cols, A[r], 0, cols);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the whole matrix into the heap, each row is copied straight out of
+     * the mapped file
+     *
+     * @return the matrix
+     */
+    public int[][] load() {
+        int[][] A = new int[rows][cols];
+        if (layout == Layout.TILED) {
+            int[] tile = new int[tileSize * tileSize];
+            for (int ti = 0; ti < getTileRows(); ti++) {
+                for (int tj = 0; tj < getTileCols(); tj++) {
+                    readTile(ti, tj, tile);
+                    int h = Math.min(tileSize, rows - ti * tileSize);
+                    int w = Math.min(tileSize, cols - tj * tileSize);
+                    for (int r = 0; r < h; r++) {
+                        System.arraycopy(tile, r * tileSize, A[ti * tileSize + r], tj * tileSize, w);
+                    }
+                }
+            }
+        } else {
+            for (int r = 0; r < rows; r++) {
+                get((long) r * cols, A[r], 0, cols);
+            }
+        }
+        return A;
+    }
+
+    /**
+     * Copies one tile into an array, row-major with a row stride of the tile
+     * size. Parts of the tile outside the matrix read as zero
+     *
+     * @param tileRow row of the tile in the grid of tiles
+     * @param tileCol column of the tile in the grid of tiles
+     * @param tile array of at least tile size * tile size ints to copy into
+     */
+    public void readTile(int tileRow, int tileCol, int[] tile) {
+        if (layout == Layout.TILED) {
+            get(tileOffset(tileRow, tileCol), tile, 0, tileSize * tileSize);
+            return;
+        }
+        int h = Math.min(tileSize, rows - tileRow * tileSize);
+        int w = Math.min(tileSize, cols - tileCol * tileSize);
+        Arrays.fill(tile, 0, tileSize * tileSize, 0);
+        long first = rowMajorTileOffset(tileRow, tileCol);
+        for (int r = 0; r < h; r++) {
+            get(first + (long) r * cols, tile, r * tileSize, w);
+        }
+    }
+
+    /**
+     * Copies an array into one tile, parts of the array outside the matrix are
+     * ignored for row-major files
+     *
+     * @param tileRow row of the tile in the grid of tiles
+     * @param tileCol column of the tile in the grid of tiles
+     * @param tile array of at least tile size * tile size ints, row-major with a row stride of the tile size
+     */
+    public void writeTile(int tileRow, int tileCol, int[] tile) {
+        if (!writable) {
+            throw new IllegalStateException("matrix file was opened read only");
+        }
+        if (layout == Layout.TILED) {
+            put(tileOffset(tileRow, tileCol), tile, 0, tileSize * tileSize);
+            return;
+        }
+        int h = Math.min(tileSize, rows - tileRow * tileSize);
+        int w = Math.min(tileSize, cols - tileCol * tileSize);
+        long first = rowMajorTileOffset(tileRow, tileCol);
+        for (int r = 0; r < h; r++) {
+            put(first + (long) r * cols, tile, r * tileSize, w);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public ElementType getElementType() {
+        return elementType;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * @return the number of rows in the grid of tiles
+     */
+    public int getTileRows() {
+        return (rows + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * @return the number of columns in the grid of tiles
+     */
+    public int getTileCols() {
+        return (cols + tileSize - 1) / tileSize;
+    }
+
+    private long payloadBytes() {
+        return payloadBytes(elementType, layout, rows, cols, tileSize);
+    }
+
+    private static long payloadBytes(ElementType elementType, Layout layout, int rows, int cols, int tileSize) {
+        long tileRows = (rows + tileSize - 1) / tileSize, tileCols = (cols + tileSize - 1) / tileSize;
+        long elements = layout == Layout.TILED ? tileRows * tileCols * tileSize * tileSize : (long) rows * cols;
+        return elements * elementType.getBytes();
+    }
+
+    private long tileOffset(int tileRow, int tileCol) {
+        return ((long) tileRow * getTileCols() + tileCol) * tileSize * tileSize;
+    }
+
+    /*
+     * element index of the top left corner of a tile of a row-major file
+     */
+    private long rowMajorTileOffset(int tileRow, int tileCol) {
+        return (long) tileRow * tileSize * cols + (long) tileCol * tileSize;
+    }
+
+    /*
+     * copies count ints starting at element index first of the payload into
+     * dst, splitting the copy where it crosses from one window into the next.
+     * The absolute bulk get leaves the shared window's position alone, so
+     * threads can read different tiles at once
+     */
+    private void get(long first, int[] dst, int offset, int count) {
+        while (count > 0) {
+            IntBuffer window = windows[(int) (first / WINDOW_INTS)];
+            int position = (int) (first % WINDOW_INTS);
+            int n = Math.min(count, window.limit() - position);
+            window.get(position, dst, offset, n);
+            first += n;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    /*
+     * copies count ints of src into the payload starting at element index first
+     */
+    private void put(long first, int[] src, int offset, int count) {
+        while (count > 0) {
+            IntBuffer window = windows[(int) (first / WINDOW_INTS)];
+            int position = (int) (first % WINDOW_INTS);
+            int n = Math.min(count, window.limit() - position);
+            window.put(position, src, offset, n);
+            first += n;
+            offset += n;
+            count -= n;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Parallel element-wise operations and reductions over int matrices. They all
+ * share one Partitioner, so every operation splits the matrix the same way:
+ * element-wise operations and whole matrix reductions work on chunks of
+ * elements, and reductions with a result per row or column work on bands of
+ * whole rows. Reductions keep one partial result per chunk, spaced a cache
+ * line apart, and combine them once every chunk is done. Sums are returned as
+ * longs so they do not overflow. The result matrix of an element-wise
+ * operation may be one of its operands
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatrixOps {
+
+    private final Partitioner partitioner;
+
+    /**
+     * Creates the operations on the common fork/join pool
+     */
+    public MatrixOps() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates the operations
+     *
+     * @param pool the fork/join pool to run the chunks on
+     */
+    public MatrixOps(ForkJoinPool pool) {
+        this.partitioner = new Partitioner(pool);
+    }
+
+    /**
+     * C = f(A) for every element
+     *
+     * @param A the matrix to map
+     * @param f the function applied to each element
+     * @param C the matrix that stores the result
+     */
+    public void map(int[][] A, IntUnaryOperator f, int[][] C) {
+        checkShape(A, C);
+        partitioner.elements(A.length, cols(A), (chunk, i, lo, hi) -> {
+            int[] rowA = A[i], rowC = C[i];
+            for (int j = lo; j < hi; j++) {
+                rowC[j] = f.applyAsInt(rowA[j]);
+            }
+        });
+    }
+
+    /**
+     * C = f(A, B) for every pair of elements
+     *
+     * @param A the first matrix
+     * @param B the second matrix
+     * @param f the function applied to each pair of elements
+     * @param C the matrix that stores the result
+     */
+    public void zip(int[][] A, int[][] B, IntBinaryOperator f, int[][] C) {
+        checkShape(A, B);
+        checkShape(A, C);
+        partitioner.elements(A.length, cols(A), (chunk, i, lo, hi) -> {
+            int[] rowA = A[i], rowB = B[i], rowC = C[i];
+            for (int j = lo; j < hi; j++) {
+                rowC[j] = f.applyAsInt(rowA[j], rowB[j]);
+            }
+        });
+    }
+
+    /**
+     * C = alpha * A
+     *
+     * @param alpha the scale factor
+     * @param A the matrix to scale
+     * @param C the matrix that stores the result
+     */
+    public void scale(int alpha, int[][] A, int[][] C) {
+        checkShape(A, C);
+        partitioner.elements(A.length, cols(A), (chunk, i, lo, hi) -> {
+            int[] rowA = A[i], rowC = C[i];
+            for (int j = lo; j < hi; j++) {
+                rowC[j] = alpha * rowA[j];
+            }
+        });
+    }
+
+    /**
+     * C = A * B element by element, the Hadamard product
+     *
+     * @param A the first matrix
+     * @param B the second matrix
+     * @param C the matrix that stores the result
+     */
+    public void hadamard(int[][] A, int[][] B, int[][] C) {
+        checkShape(A, B);
+        checkShape(A, C);
+        partitioner.elements(A.length, cols(A), (chunk, i, lo, hi) -> {
+            int[] rowA = A[i], rowB = B[i], rowC = C[i];
+            for (int j = lo; j < hi; j++) {
+                rowC[j] = rowA[j] * rowB[j];
+            }
+        });
+    }
+
+    /**
+     * C = A * B + D element by element, in one pass over the four matrices
+     *
+     * @param A the first factor
+     * @param B the second factor
+     * @param D the matrix added to the product
+     * @param C the matrix that stores the result
+     */
+    public void fma(int[][] A, int[][] B, int[][] D, int[][] C) {
+        checkShape(A, B);
+        checkShape(A, D);
+        checkShape(A, C);
+        partitioner.elements(A.length, cols(A), (chunk, i, lo, hi) -> {
+            int[] rowA = A[i], rowB = B[i], rowD = D[i], rowC = C[i];
+            for (int j = lo; j < hi; j++) {
+                rowC[j] = rowA[j] * rowB[j] + rowD[j];
+            }
+        });
+    }
+
+    /**
+     * @param A a matrix
+     * @return the sum of its elements
+     */
+    public long sum(int[][] A) {
+        long[] partials = partials(partitioner.elementChunks(A.length, cols(A)), 0);
+        partitioner.elements(A.length, cols(A), (chunk, i, lo, hi) -> {
+            int[] rowA = A[i];
+            long sum = 0;
+            for (int j = lo; j < hi; j++) {
+                sum += rowA[j];
+            }
+            partials[chunk * Partitioner.PAD] += sum;
+        });
+        long sum = 0;
+        for (int c = 0; c < partials.length; c += Partitioner.PAD) {
+            sum += partials[c];
+        }
+        return sum;
+    }
+
+    /**
+     * @param A a matrix with at least one element
+     * @return its smallest element
+     */
+    public int min(int[][] A) {
+        checkNotEmpty(A);
+        long[] partials = partials(partitioner.elementChunks(A.length, cols(A)), Integer.MAX_VALUE);
+        partitioner.elements(A.length, cols(A), (chunk, i, lo, hi) -> {
+            int[] rowA = A[i];
+            long min = partials[chunk * Partitioner.PAD];
+            for (int j = lo; j < hi; j++) {
+                min = Math.min(min, rowA[j]);
+            }
+            partials[chunk * Partitioner.PAD] = min;
+        });
+        long min = Integer.MAX_VALUE;
+        for (int c = 0; c < partials.length; c += Partitioner.PAD) {
+            min = Math.min(min, partials[c]);
+        }
+        return (int) min;
+    }
+
+    /**
+     * @param A a matrix with at least one element
+     * @return its largest element
+     */
+    public int max(int[][] A) {
+        checkNotEmpty(A);
+        long[] partials = partials(partitioner.elementChunks(A.length, cols(A)), Integer.MIN_VALUE);
+        partitioner.elements(A.length, cols(A), (chunk, i, lo, hi) -> {
+            int[] rowA = A[i];
+            long max = partials[chunk * Partitioner.PAD];
+            for (int j = lo; j < hi; j++) {
+                max = Math.max(max, rowA[j]);
+            }
+            partials[chunk * Partitioner.PAD] = max;
+        });
+        long max = Integer.MIN_VALUE;
+        for (int c = 0; c < partials.length; c += Partitioner.PAD) {
+            max = Math.max(max, partials[c]);
+        }
+        return (int) max;
+    }
+
+    /**
+     * @param A a matrix
+     * @return the sum of its diagonal, which is short enough to add up on the caller
+     */
+    public long trace(int[][] A) {
+        long trace = 0;
+        for (int i = 0; i < Math.min(A.length, cols(A)); i++) {
+            trace += A[i][i];
+        }
+        return trace;
+    }
+
+    /**
+     * @param A a matrix
+     * @return the square root of the sum of the squares of its elements
+     */
+    public double frobeniusNorm(int[][] A) {
+        double[] partials = new double[partitioner.elementChunks(A.length, cols(A)) * Partitioner.PAD];
+        partitioner.elements(A.length, cols(A), (chunk, i, lo, hi) -> {
+            int[] rowA = A[i];
+            double sum = 0;
+            for (int j = lo; j < hi; j++) {
+                double value = rowA[j];
+                sum += value * value;
+            }
+            partials[chunk * Partitioner.PAD] += sum;
+        });
+        double sum = 0;
+        for (int c = 0; c < partials.length; c += Partitioner.PAD) {
+            sum += partials[c];
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * @param A a matrix
+     * @return the sum of each row
+     */
+    public long[] rowSums(int[][] A) {
+        long[] sums = new long[A.length];
+        partitioner.rows(A.length, cols(A), (chunk, lo, hi) -> {
+            for (int i = lo; i < hi; i++) { // bands are whole cache lines of sums, so no two threads share one
+                long sum = 0;
+                for (int value : A[i]) {
+                    sum += value;
+                }
+                sums[i] = sum;
+            }
+        });
+        return sums;
+    }
+
+    /**
+     * @param A a matrix
+     * @return the sum of each column
+     */
+    public long[] columnSums(int[][] A) {
+        int cols = cols(A);
+        long[][] partials = new long[partitioner.bands(A.length, cols)][]; // every band sums into its own array
+        partitioner.rows(A.length, cols, (chunk, lo, hi) -> {
+            long[] sums = new long[cols];
+            for (int i = lo; i < hi; i++) {
+                int[] rowA = A[i];
+                for (int j = 0; j < cols; j++) {
+                    sums[j] += rowA[j];
+                }
+            }
+            partials[chunk] = sums;
+        });
+        long[] sums = new long[cols];
+        for (long[] partial : partials) {
+            for (int j = 0; j < cols; j++) {
+                sums[j] += partial[j];
+            }
+        }
+        return sums;
+    }
+
+    private static long[] partials(int chunks, long identity) {
+        long[] partials = new long[chunks * Partitioner.PAD];
+        Arrays.fill(partials, identity);
+        return partials;
+    }
+
+    private static int cols(int[][] A) {
+        return A.length == 0 ? 0 : A[0].length;
+    }
+
+    private static void checkShape(int[][] A, int[][] B) {
+        if (A.length != B.length || cols(A) != cols(B)) {
+            throw new IllegalArgumentException("shapes differ: " + A.length + "x" + cols(A) + " and " + B.length + "x" + cols(B));
+        }
+    }
+
+    private static void checkNotEmpty(int[][] A) {
+        if (A.length == 0 || cols(A) == 0) {
+            throw new IllegalArgumentException("matrix has no elements");
+        }
+    }
+}
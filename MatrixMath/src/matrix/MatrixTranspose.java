@@ -0,0 +1,227 @@
+package matrix;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Transposes int matrices with a cache oblivious recursion: the longer side
+ * of the block is halved until the block fits in cache whatever its size, so
+ * both the rows read and the columns written stay in cache without tuning a
+ * block size for the machine. Large halves run in parallel on a fork/join
+ * pool. Square matrices can be transposed in place, by transposing the blocks
+ * on the diagonal and swapping the blocks above it with those below
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatrixTranspose {
+
+    private static final int LEAF = 32; // blocks no larger than 32x32 are transposed with plain loops
+    private static final int PARALLEL_AREA = 128 * 128; // smaller blocks are not worth forking
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates a transposer that uses the common fork/join pool
+     */
+    public MatrixTranspose() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a transposer
+     *
+     * @param pool the fork/join pool to run the blocks on
+     */
+    public MatrixTranspose(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Transposes a matrix into another one
+     *
+     * @param A the matrix to transpose, rows x cols
+     * @param T the matrix that will store the transpose, cols x rows
+     */
+    public void transpose(int[][] A, int[][] T) {
+        int rows = A.length;
+        int cols = rows == 0 ? 0 : A[0].length;
+        if (T.length != cols || (cols > 0 && T[0].length != rows)) {
+            throw new IllegalArgumentException("cannot transpose " + rows + "x" + cols + " into " + T.length + "x" + (T.length == 0 ? 0 : T[0].length));
+        }
+        if (rows == 0 || cols == 0) {
+            return;
+        }
+        pool.invoke(new CopyTask(A, T, 0, rows, 0, cols));
+    }
+
+    /**
+     * Transposes a square matrix in place
+     *
+     * @param A the matrix to transpose
+     */
+    public void transpose(int[][] A) {
+        if (A.length > 0 && A[0].length != A.length) {
+            throw new IllegalArgumentException("only square matrices can be transposed in place, got " + A.length + "x" + A[0].length);
+        }
+        if (A.length == 0) {
+            return;
+        }
+        pool.invoke(new DiagonalTask(A, 0, A.length));
+    }
+
+    /**
+     * @param A the matrix to transpose
+     * @return a new matrix holding the transpose of A
+     */
+    public int[][] transposed(int[][] A) {
+        int[][] T = new int[A.length == 0 ? 0 : A[0].length][A.length];
+        transpose(A, T);
+        return T;
+    }
+
+    /*
+     * T[j][i] = A[i][j] for the block rowLo..rowHi x colLo..colHi of A
+     */
+    private static final class CopyTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[][] A, T;
+        private final int rowLo, rowHi, colLo, colHi;
+
+        CopyTask(int[][] A, int[][] T, int rowLo, int rowHi, int colLo, int colHi) {
+            this.A = A;
+            this.T = T;
+            this.rowLo = rowLo;
+            this.rowHi = rowHi;
+            this.colLo = colLo;
+            this.colHi = colHi;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = rowHi - rowLo, cols = colHi - colLo;
+            if (rows <= LEAF && cols <= LEAF) {
+                for (int i = rowLo; i < rowHi; i++) {
+                    int[] rowA = A[i];
+                    for (int j = colLo; j < colHi; j++) {
+                        T[j][i] = rowA[j];
+                    }
+                }
+                return;
+            }
+            CopyTask first, second;
+            if (rows >= cols) {
+                int mid = (rowLo + rowHi) >>> 1;
+                first = new CopyTask(A, T, rowLo, mid, colLo, colHi);
+                second = new CopyTask(A, T, mid, rowHi, colLo, colHi);
+            } else {
+                int mid = (colLo + colHi) >>> 1;
+                first = new CopyTask(A, T, rowLo, rowHi, colLo, mid);
+                second = new CopyTask(A, T, rowLo, rowHi, mid, colHi);
+            }
+            if ((long) rows * cols > PARALLEL_AREA) {
+                invokeAll(first, second);
+            } else {
+                first.compute();
+                second.compute();
+            }
+        }
+    }
+
+    /*
+     * transposes the square block lo..hi on the diagonal in place
+     */
+    private static final class DiagonalTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[][] A;
+        private final int lo, hi;
+
+        DiagonalTask(int[][] A, int lo, int hi) {
+            this.A = A;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            int size = hi - lo;
+            if (size <= LEAF) {
+                for (int i = lo; i < hi; i++) {
+                    for (int j = i + 1; j < hi; j++) {
+                        int temp = A[i][j];
+                        A[i][j] = A[j][i];
+                        A[j][i] = temp;
+                    }
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            DiagonalTask top = new DiagonalTask(A, lo, mid);
+            DiagonalTask bottom = new DiagonalTask(A, mid, hi);
+            SwapTask offDiagonal = new SwapTask(A, lo, mid, mid, hi);
+            if ((long) size * size > PARALLEL_AREA) {
+                invokeAll(top, bottom, offDiagonal);
+            } else {
+                top.compute();
+                bottom.compute();
+                offDiagonal.compute();
+            }
+        }
+    }
+
+    /*
+     * swaps the block rowLo..rowHi x colLo..colHi, which lies above the
+     * diagonal, with the transpose of its mirror below the diagonal
+     */
+    private static final class SwapTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[][] A;
+        private final int rowLo, rowHi, colLo, colHi;
+
+        SwapTask(int[][] A, int rowLo, int rowHi, int colLo, int colHi) {
+            this.A = A;
+            this.rowLo = rowLo;
+            this.rowHi = rowHi;
+            this.colLo = colLo;
+            this.colHi = colHi;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = rowHi - rowLo, cols = colHi - colLo;
+            if (rows <= LEAF && cols <= LEAF) {
+                for (int i = rowLo; i < rowHi; i++) {
+                    int[] rowA = A[i];
+                    for (int j = colLo; j < colHi; j++) {
+                        int temp = rowA[j];
+                        rowA[j] = A[j][i];
+                        A[j][i] = temp;
+                    }
+                }
+                return;
+            }
+            SwapTask first, second;
+            if (rows >= cols) {
+                int mid = (rowLo + rowHi) >>> 1;
+                first = new SwapTask(A, rowLo, mid, colLo, colHi);
+                second = new SwapTask(A, mid, rowHi, colLo, colHi);
+            } else {
+                int mid = (colLo + colHi) >>> 1;
+                first = new SwapTask(A, rowLo, rowHi, colLo, mid);
+                second = new SwapTask(A, rowLo, rowHi, mid, colHi);
+            }
+            if ((long) rows * cols > PARALLEL_AREA) {
+                invokeAll(first, second);
+            } else {
+                first.compute();
+                second.compute();
+            }
+        }
+    }
+}
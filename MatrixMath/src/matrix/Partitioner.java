@@ -0,0 +1,146 @@
+package matrix;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the elements or rows of a matrix into contiguous chunks and runs a
+ * body over each chunk on a fork/join pool. Chunks are numbered, so a
+ * reduction can keep one partial result per chunk and combine them at the
+ * end. Element chunks are a multiple of a cache line of ints long and only
+ * start in the middle of a row at a multiple of a cache line, and row chunks
+ * are a multiple of a cache line of rows, so two threads never write to the
+ * same cache line of a result row or of a per row output array. There are a
+ * few chunks per thread so threads that finish early can steal work
+ *
+ * @author Peter Swantek
+ *
+ */
+final class Partitioner {
+
+    static final int LINE = 16; // ints in a 64 byte cache line
+    static final int PAD = 8; // longs in a cache line, the stride between per chunk partial results
+    private static final int MIN_CHUNK = 64 * LINE; // fewer elements than this are not worth a task
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+
+    Partitioner(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /*
+     * the piece of a row that belongs to one chunk
+     */
+    interface Segment {
+        void compute(int chunk, int row, int colLo, int colHi);
+    }
+
+    /*
+     * a band of whole rows
+     */
+    interface Band {
+        void compute(int chunk, int rowLo, int rowHi);
+    }
+
+    /**
+     * @return the number of element chunks of a rows x cols matrix
+     */
+    int elementChunks(int rows, int cols) {
+        long total = (long) rows * width(cols);
+        long size = elementChunkSize(total);
+        return (int) ((total + size - 1) / size);
+    }
+
+    /**
+     * Runs the segment body over every row piece of every element chunk
+     */
+    void elements(int rows, int cols, Segment segment) {
+        int width = width(cols);
+        long total = (long) rows * width;
+        long size = elementChunkSize(total);
+        int chunks = (int) ((total + size - 1) / size);
+        run(chunks, chunk -> {
+            long lo = chunk * size, hi = Math.min(total, lo + size);
+            while (lo < hi) {
+                int row = (int) (lo / width);
+                int colLo = (int) (lo % width);
+                int colHi = (int) Math.min(width, colLo + (hi - lo));
+                if (colLo < cols) {
+                    segment.compute(chunk, row, colLo, Math.min(cols, colHi));
+                }
+                lo += colHi - colLo;
+            }
+        });
+    }
+
+    /*
+     * rows are treated as if they were padded to a whole number of cache
+     * lines, so that chunks that start in the middle of a row start on a line
+     */
+    private static int width(int cols) {
+        return (cols + LINE - 1) / LINE * LINE;
+    }
+
+    private long elementChunkSize(long total) {
+        long target = Math.max(MIN_CHUNK, total / ((long) pool.getParallelism() * CHUNKS_PER_THREAD));
+        return (target + LINE - 1) / LINE * LINE;
+    }
+
+    /**
+     * @return the number of row bands of a matrix with the given rows
+     */
+    int bands(int rows, int cols) {
+        return (rows + bandSize(rows, cols) - 1) / bandSize(rows, cols);
+    }
+
+    /**
+     * Runs the band body over bands of whole rows
+     */
+    void rows(int rows, int cols, Band band) {
+        int bands = bands(rows, cols);
+        int size = bandSize(rows, cols);
+        run(bands, chunk -> band.compute(chunk, chunk * size, Math.min(rows, (chunk + 1) * size)));
+    }
+
+    private int bandSize(int rows, int cols) {
+        long perBand = Math.max(1, elementChunkSize((long) rows * width(cols)) / Math.max(LINE, width(cols)));
+        return (int) Math.min(Math.max(rows, 1), (perBand + LINE - 1) / LINE * LINE);
+    }
+
+    private interface Chunk {
+        void compute(int chunk);
+    }
+
+    private void run(int chunks, Chunk body) {
+        if (chunks == 1) {
+            body.compute(0);
+        } else if (chunks > 1) {
+            pool.invoke(new ChunkTask(body, 0, chunks));
+        }
+    }
+
+    private static final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk body;
+        private final int lo, hi;
+
+        ChunkTask(Chunk body, int lo, int hi) {
+            this.body = body;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                body.compute(lo);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new ChunkTask(body, lo, mid), new ChunkTask(body, mid, hi));
+        }
+    }
+}
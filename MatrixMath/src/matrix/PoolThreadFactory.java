@@ -0,0 +1,31 @@
+package matrix;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads for the thread pools owned by MatMath
+ * implementations, so a pool that is never closed does not keep the JVM alive
+ *
+ * @author Peter Swantek
+ *
+ */
+final class PoolThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * @param prefix the start of the name of every thread
+     */
+    PoolThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+}
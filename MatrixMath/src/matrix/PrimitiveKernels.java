@@ -0,0 +1,18 @@
+package matrix;
+
+/**
+ * The shared long and double kernels behind the default LongMatrix and
+ * DoubleMatrix methods of MatMath. They hold nothing but the common pool, so
+ * one instance of each serves every call
+ *
+ * @author Peter Swantek
+ *
+ */
+final class PrimitiveKernels {
+
+    static final MatMathLong LONG = new MatMathLong();
+    static final MatMathDouble DOUBLE = new MatMathDouble();
+
+    private PrimitiveKernels() {
+    }
+}
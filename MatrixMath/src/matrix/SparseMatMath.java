@@ -0,0 +1,15 @@
+package matrix;
+
+public interface SparseMatMath {
+
+    void multiply(SparseMatrix A, int[][] B, int[][] C); // multiply sparse A and dense B into C
+
+    void multiply(int[][] A, SparseMatrix B, int[][] C); // multiply dense A and sparse B into C
+
+    void multiply(SparseMatrix A, int[] x, int[] y); // multiply sparse A and the vector x into y
+
+    SparseMatrix multiply(SparseMatrix A, SparseMatrix B); // multiply sparse A and B into a new sparse matrix
+
+    SparseMatrix add(SparseMatrix A, SparseMatrix B); // add sparse A and B into a new sparse matrix
+
+}
@@ -0,0 +1,372 @@
+package matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+import matrix.SparseMatrix.Format;
+
+/**
+ * Provides an implementation of the SparseMatMath interface that works on rows
+ * of CSR matrices in parallel on a fork/join pool (CSC operands are converted
+ * first). It also implements MatMath for dense arrays: the density of the left
+ * operand of a product is measured first and, when it is below the threshold,
+ * A goes through the sparse path. Otherwise the density of the right operand
+ * is measured and, when that is below the threshold, B does. When neither is
+ * sparse enough the product goes to a dense implementation
+ *
+ * @author Peter Swantek
+ *
+ */
+public class SparseMatMathImpl implements SparseMatMath, MatMath {
+
+    public static final double DEFAULT_DENSITY_THRESHOLD = 0.05;
+
+    private final ForkJoinPool pool;
+    private final MatMath dense;
+    private final double densityThreshold;
+
+    /**
+     * Creates a sparse implementation that uses the common fork/join pool and
+     * falls back to the tiled implementation for dense products
+     */
+    public SparseMatMathImpl() {
+        this(ForkJoinPool.commonPool(), new MatMathImplTiled(), DEFAULT_DENSITY_THRESHOLD);
+    }
+
+    /**
+     * Creates a sparse implementation
+     *
+     * @param pool the fork/join pool to run the rows on
+     * @param dense the implementation used for dense arrays that are not sparse enough
+     * @param densityThreshold dense arrays with a smaller fraction of non zeros than this are multiplied as sparse
+     */
+    public SparseMatMathImpl(ForkJoinPool pool, MatMath dense, double densityThreshold) {
+        this.pool = pool;
+        this.dense = dense;
+        this.densityThreshold = densityThreshold;
+    }
+
+    /**
+     * Multiplies 2 matrices and stores the result in a third array, using the
+     * sparse kernel when A is sparse enough
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(int[][] A, int[][] B, int[][] C) {
+        if (density(A) < densityThreshold) {
+            multiply(SparseMatrix.fromDense(A, Format.CSR), B, C);
+        } else if (density(B) < densityThreshold) {
+            multiply(A, SparseMatrix.fromDense(B, Format.CSR), C);
+        } else {
+            dense.multiply(A, B, C);
+        }
+    }
+
+    /**
+     * Adds two matrices together and stores the result in a third matrix.
+     * Adding dense arrays touches every element whatever the density, so this
+     * always goes to the dense implementation
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(int[][] A, int[][] B, int[][] C) {
+        dense.add(A, B, C);
+    }
+
+    /**
+     * Print out a matrix
+     *
+     * @param A the matrix to be printed
+     */
+    @Override
+    public void print(int[][] A) {
+        for (int[] subarray : A) {
+            System.out.println(Arrays.toString(subarray));
+        }
+    }
+
+    /**
+     * Multiplies a sparse matrix by a dense one, each row of C is a sum of the
+     * rows of B picked out by the non zeros in the same row of A
+     *
+     * @param A the sparse matrix
+     * @param B the dense matrix
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(SparseMatrix A, int[][] B, int[][] C) {
+        SparseMatrix csr = A.toCSR();
+        int[] pointers = csr.pointers(), indices = csr.indices(), values = csr.values();
+        pool.submit(() -> IntStream.range(0, csr.getRows()).parallel().forEach(i -> {
+            int[] rowC = C[i];
+            Arrays.fill(rowC, 0);
+            for (int p = pointers[i]; p < pointers[i + 1]; p++) {
+                int value = values[p];
+                int[] rowB = B[indices[p]];
+                for (int j = 0; j < rowC.length; j++) {
+                    rowC[j] += value * rowB[j];
+                }
+            }
+        })).join();
+    }
+
+    /**
+     * Multiplies a dense matrix by a sparse one, each non zero of a row of A
+     * scatters the matching sparse row of B into the row of C
+     *
+     * @param A the dense matrix
+     * @param B the sparse matrix
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public void multiply(int[][] A, SparseMatrix B, int[][] C) {
+        SparseMatrix csr = B.toCSR();
+        int[] pointers = csr.pointers(), indices = csr.indices(), values = csr.values();
+        pool.submit(() -> IntStream.range(0, A.length).parallel().forEach(i -> {
+            int[] rowA = A[i];
+            int[] rowC = C[i];
+            Arrays.fill(rowC, 0);
+            for (int k = 0; k < rowA.length; k++) {
+                int a = rowA[k];
+                if (a != 0) {
+                    for (int p = pointers[k]; p < pointers[k + 1]; p++) {
+                        rowC[indices[p]] += a * values[p];
+                    }
+                }
+            }
+        })).join();
+    }
+
+    /**
+     * Multiplies a sparse matrix by a vector
+     *
+     * @param A the sparse matrix
+     * @param x the vector, as long as A has columns
+     * @param y the vector that stores the result, as long as A has rows
+     */
+    @Override
+    public void multiply(SparseMatrix A, int[] x, int[] y) {
+        SparseMatrix csr = A.toCSR();
+        int[] pointers = csr.pointers(), indices = csr.indices(), values = csr.values();
+        pool.submit(() -> IntStream.range(0, csr.getRows()).parallel().forEach(i -> {
+            int sum = 0;
+            for (int p = pointers[i]; p < pointers[i + 1]; p++) {
+                sum += values[p] * x[indices[p]];
+            }
+            y[i] = sum;
+        })).join();
+    }
+
+    /**
+     * Multiplies two sparse matrices row by row (Gustavson's algorithm). The
+     * rows are split into bands on the fork/join pool and each band
+     * accumulates its rows of the product in one dense scratch row
+     *
+     * @param A the first sparse matrix
+     * @param B the second sparse matrix
+     * @return the product in CSR form
+     */
+    @Override
+    public SparseMatrix multiply(SparseMatrix A, SparseMatrix B) {
+        if (A.getCols() != B.getRows()) {
+            throw new IllegalArgumentException("cannot multiply " + A.getRows() + "x" + A.getCols() + " by " + B.getRows() + "x" + B.getCols());
+        }
+        SparseMatrix a = A.toCSR();
+        SparseMatrix b = B.toCSR();
+        int cols = b.getCols();
+        int[][] rowIndices = new int[a.getRows()][];
+        int[][] rowValues = new int[a.getRows()][];
+        int band = Math.max(1, a.getRows() / (4 * pool.getParallelism())); // a few bands per worker to balance uneven rows
+
+        if (a.getRows() > 0) {
+            pool.invoke(new ProductTask(a, b, rowIndices, rowValues, 0, a.getRows(), band));
+        }
+        return concatenate(a.getRows(), cols, rowIndices, rowValues);
+    }
+
+    /**
+     * Adds two sparse matrices by merging their sorted rows
+     *
+     * @param A a sparse matrix to be added
+     * @param B a sparse matrix to be added
+     * @return the sum in CSR form
+     */
+    @Override
+    public SparseMatrix add(SparseMatrix A, SparseMatrix B) {
+        if (A.getRows() != B.getRows() || A.getCols() != B.getCols()) {
+            throw new IllegalArgumentException("cannot add " + A.getRows() + "x" + A.getCols() + " and " + B.getRows() + "x" + B.getCols());
+        }
+        SparseMatrix a = A.toCSR();
+        SparseMatrix b = B.toCSR();
+        int[][] rowIndices = new int[a.getRows()][];
+        int[][] rowValues = new int[a.getRows()][];
+
+        pool.submit(() -> IntStream.range(0, a.getRows()).parallel().forEach(i -> {
+            int p = a.pointers()[i], pEnd = a.pointers()[i + 1];
+            int q = b.pointers()[i], qEnd = b.pointers()[i + 1];
+            int[] indices = new int[(pEnd - p) + (qEnd - q)];
+            int[] values = new int[indices.length];
+            int count = 0;
+            while (p < pEnd || q < qEnd) {
+                int column;
+                int value;
+                if (q == qEnd || (p < pEnd && a.indices()[p] < b.indices()[q])) {
+                    column = a.indices()[p];
+                    value = a.values()[p++];
+                } else if (p == pEnd || b.indices()[q] < a.indices()[p]) {
+                    column = b.indices()[q];
+                    value = b.values()[q++];
+                } else {
+                    column = a.indices()[p];
+                    value = a.values()[p++] + b.values()[q++];
+                }
+                if (value != 0) {
+                    indices[count] = column;
+                    values[count] = value;
+                    count++;
+                }
+            }
+            rowIndices[i] = Arrays.copyOf(indices, count);
+            rowValues[i] = Arrays.copyOf(values, count);
+        })).join();
+        return concatenate(a.getRows(), a.getCols(), rowIndices, rowValues);
+    }
+
+    /*
+     * fraction of non zero entries in a dense array
+     */
+    private double density(int[][] A) {
+        if (A.length == 0 || A[0].length == 0) {
+            return 1;
+        }
+        long nonZeros = pool.submit(() -> IntStream.range(0, A.length).parallel().mapToLong(i -> {
+            long count = 0;
+            for (int value : A[i]) {
+                if (value != 0) {
+                    count++;
+                }
+            }
+            return count;
+        }).sum()).join();
+        return (double) nonZeros / ((double) A.length * A[0].length);
+    }
+
+    /*
+     * joins rows computed separately into one CSR matrix
+     */
+    private static SparseMatrix concatenate(int rows, int cols, int[][] rowIndices, int[][] rowValues) {
+        int[] pointers = new int[rows + 1];
+        for (int i = 0; i < rows; i++) {
+            pointers[i + 1] = pointers[i] + rowIndices[i].length;
+        }
+        int[] indices = new int[pointers[rows]];
+        int[] values = new int[pointers[rows]];
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(rowIndices[i], 0, indices, pointers[i], rowIndices[i].length);
+            System.arraycopy(rowValues[i], 0, values, pointers[i], rowValues[i].length);
+        }
+        return new SparseMatrix(Format.CSR, rows, cols, pointers, indices, values);
+    }
+
+    /*
+     * multiplies the rows rowLo..rowHi of a by b, splitting in half down to a
+     * band, every band gets its own scratch row
+     */
+    private static final class ProductTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SparseMatrix a, b;
+        private final int[][] rowIndices, rowValues;
+        private final int rowLo, rowHi, band;
+
+        ProductTask(SparseMatrix a, SparseMatrix b, int[][] rowIndices, int[][] rowValues, int rowLo, int rowHi, int band) {
+            this.a = a;
+            this.b = b;
+            this.rowIndices = rowIndices;
+            this.rowValues = rowValues;
+            this.rowLo = rowLo;
+            this.rowHi = rowHi;
+            this.band = band;
+        }
+
+        @Override
+        protected void compute() {
+            if (rowHi - rowLo > band) {
+                int mid = (rowLo + rowHi) >>> 1;
+                invokeAll(new ProductTask(a, b, rowIndices, rowValues, rowLo, mid, band),
+                        new ProductTask(a, b, rowIndices, rowValues, mid, rowHi, band));
+                return;
+            }
+            int[] aPointers = a.pointers(), aIndices = a.indices(), aValues = a.values();
+            int[] bPointers = b.pointers(), bIndices = b.indices(), bValues = b.values();
+            RowAccumulator row = new RowAccumulator(b.getCols());
+            for (int i = rowLo; i < rowHi; i++) {
+                for (int p = aPointers[i]; p < aPointers[i + 1]; p++) {
+                    int value = aValues[p];
+                    int k = aIndices[p];
+                    for (int q = bPointers[k]; q < bPointers[k + 1]; q++) {
+                        row.add(bIndices[q], value * bValues[q]);
+                    }
+                }
+                row.drain(rowIndices, rowValues, i);
+            }
+        }
+    }
+
+    /*
+     * a dense scratch row plus the list of columns touched, so clearing it
+     * costs as much as the number of non zeros rather than the row length
+     */
+    private static final class RowAccumulator {
+
+        private final int[] sums;
+        private final boolean[] touched;
+        private int[] columns = new int[16];
+        private int count;
+
+        RowAccumulator(int cols) {
+            sums = new int[cols];
+            touched = new boolean[cols];
+        }
+
+        void add(int column, int value) {
+            if (!touched[column]) {
+                touched[column] = true;
+                if (count == columns.length) {
+                    columns = Arrays.copyOf(columns, count * 2);
+                }
+                columns[count++] = column;
+            }
+            sums[column] += value;
+        }
+
+        void drain(int[][] rowIndices, int[][] rowValues, int row) {
+            Arrays.sort(columns, 0, count);
+            int[] indices = new int[count];
+            int[] values = new int[count];
+            int kept = 0;
+            for (int c = 0; c < count; c++) {
+                int column = columns[c];
+                if (sums[column] != 0) {
+                    indices[kept] = column;
+                    values[kept] = sums[column];
+                    kept++;
+                }
+                sums[column] = 0;
+                touched[column] = false;
+            }
+            count = 0;
+            rowIndices[row] = kept == indices.length ? indices : Arrays.copyOf(indices, kept);
+            rowValues[row] = kept == values.length ? values : Arrays.copyOf(values, kept);
+        }
+    }
+}
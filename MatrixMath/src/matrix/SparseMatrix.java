@@ -0,0 +1,277 @@
+package matrix;
+
+import java.util.Arrays;
+
+/**
+ * An immutable sparse matrix of ints in compressed sparse row (CSR) or
+ * compressed sparse column (CSC) form. For CSR the non zero entries of row i
+ * are values[pointers[i]..pointers[i + 1]) and their columns are in the same
+ * range of indices, sorted. CSC is the same with the roles of rows and columns
+ * swapped
+ *
+ * @author Peter Swantek
+ *
+ */
+public final class SparseMatrix {
+
+    /**
+     * How the non zero entries are grouped
+     */
+    public enum Format {
+        CSR, CSC
+    }
+
+    private final Format format;
+    private final int rows;
+    private final int cols;
+    private final int[] pointers; // start of each row (CSR) or column (CSC) in indices/values, plus the end
+    private final int[] indices; // column (CSR) or row (CSC) of each entry
+    private final int[] values;
+
+    /**
+     * Creates a sparse matrix from its compressed arrays, which are used
+     * without copying and must not be changed afterwards
+     *
+     * @param format whether the arrays are grouped by row or by column
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param pointers offsets of each row (CSR) or column (CSC) into indices and values, with one extra entry at the end
+     * @param indices the column (CSR) or row (CSC) of each entry, sorted within each row or column
+     * @param values the value of each entry
+     */
+    public SparseMatrix(Format format, int rows, int cols, int[] pointers, int[] indices, int[] values) {
+        int major = format == Format.CSR ? rows : cols;
+        if (pointers.length != major + 1 || indices.length != values.length || pointers[major] != values.length) {
+            throw new IllegalArgumentException("inconsistent " + format + " arrays for a " + rows + "x" + cols + " matrix");
+        }
+        this.format = format;
+        this.rows = rows;
+        this.cols = cols;
+        this.pointers = pointers;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Builds a sparse matrix holding the non zero entries of a dense one
+     *
+     * @param A the dense matrix
+     * @param format the format to build
+     * @return a sparse copy of A
+     */
+    public static SparseMatrix fromDense(int[][] A, Format format) {
+        int rows = A.length;
+        int cols = rows == 0 ? 0 : A[0].length;
+        int nonZeros = 0;
+        for (int[] row : A) {
+            for (int value : row) {
+                if (value != 0) {
+                    nonZeros++;
+                }
+            }
+        }
+
+        int major = format == Format.CSR ? rows : cols;
+        int minor = format == Format.CSR ? cols : rows;
+        int[] pointers = new int[major + 1];
+        int[] indices = new int[nonZeros];
+        int[] values = new int[nonZeros];
+        int next = 0;
+        for (int m = 0; m < major; m++) {
+            pointers[m] = next;
+            for (int n = 0; n < minor; n++) {
+                int value = format == Format.CSR ? A[m][n] : A[n][m];
+                if (value != 0) {
+                    indices[next] = n;
+                    values[next] = value;
+                    next++;
+                }
+            }
+        }
+        pointers[major] = next;
+        return new SparseMatrix(format, rows, cols, pointers, indices, values);
+    }
+
+    /**
+     * Builds a sparse matrix from a list of (row, column, value) coordinates.
+     * Coordinates can come in any order and repeated coordinates are added
+     * together
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param rowIndex the row of each entry
+     * @param colIndex the column of each entry
+     * @param value the value of each entry
+     * @param format the format to build
+     * @return the sparse matrix
+     */
+    public static SparseMatrix fromCoordinates(int rows, int cols, int[] rowIndex, int[] colIndex, int[] value, Format format) {
+        if (rowIndex.length != colIndex.length || rowIndex.length != value.length) {
+            throw new IllegalArgumentException("coordinate arrays have different lengths");
+        }
+        int[] majorIndex = format == Format.CSR ? rowIndex : colIndex;
+        int[] minorIndex = format == Format.CSR ? colIndex : rowIndex;
+        int major = format == Format.CSR ? rows : cols;
+        int minor = format == Format.CSR ? cols : rows;
+
+        // counting sort the entries by major index
+        int[] pointers = new int[major + 1];
+        for (int e = 0; e < majorIndex.length; e++) {
+            if (rowIndex[e] < 0 || rowIndex[e] >= rows || colIndex[e] < 0 || colIndex[e] >= cols) {
+                throw new IndexOutOfBoundsException("(" + rowIndex[e] + ", " + colIndex[e] + ") outside " + rows + "x" + cols);
+            }
+            pointers[majorIndex[e] + 1]++;
+        }
+        for (int m = 0; m < major; m++) {
+            pointers[m + 1] += pointers[m];
+        }
+        int[] next = Arrays.copyOf(pointers, major);
+        int[] sortedMinor = new int[majorIndex.length];
+        int[] sortedValue = new int[majorIndex.length];
+        for (int e = 0; e < majorIndex.length; e++) {
+            int slot = next[majorIndex[e]]++;
+            sortedMinor[slot] = minorIndex[e];
+            sortedValue[slot] = value[e];
+        }
+
+        // sort each row or column by minor index, summing duplicates and dropping zeros
+        int[] accumulator = new int[minor];
+        boolean[] seen = new boolean[minor];
+        int[] compactPointers = new int[major + 1];
+        int[] indices = new int[majorIndex.length];
+        int[] values = new int[majorIndex.length];
+        int count = 0;
+        for (int m = 0; m < major; m++) {
+            compactPointers[m] = count;
+            int start = count;
+            for (int p = pointers[m]; p < pointers[m + 1]; p++) {
+                int n = sortedMinor[p];
+                if (!seen[n]) {
+                    seen[n] = true;
+                    indices[count++] = n;
+                }
+                accumulator[n] += sortedValue[p];
+            }
+            Arrays.sort(indices, start, count);
+            int kept = start;
+            for (int p = start; p < count; p++) {
+                int n = indices[p];
+                if (accumulator[n] != 0) {
+                    indices[kept] = n;
+                    values[kept] = accumulator[n];
+                    kept++;
+                }
+                accumulator[n] = 0;
+                seen[n] = false;
+            }
+            count = kept;
+        }
+        compactPointers[major] = count;
+        return new SparseMatrix(format, rows, cols, compactPointers, Arrays.copyOf(indices, count), Arrays.copyOf(values, count));
+    }
+
+    /**
+     * @return a dense copy of this matrix
+     */
+    public int[][] toDense() {
+        int[][] A = new int[rows][cols];
+        int major = format == Format.CSR ? rows : cols;
+        for (int m = 0; m < major; m++) {
+            for (int p = pointers[m]; p < pointers[m + 1]; p++) {
+                if (format == Format.CSR) {
+                    A[m][indices[p]] = values[p];
+                } else {
+                    A[indices[p]][m] = values[p];
+                }
+            }
+        }
+        return A;
+    }
+
+    /**
+     * @return this matrix in CSR form, this if it already is
+     */
+    public SparseMatrix toCSR() {
+        return format == Format.CSR ? this : convert(Format.CSR);
+    }
+
+    /**
+     * @return this matrix in CSC form, this if it already is
+     */
+    public SparseMatrix toCSC() {
+        return format == Format.CSC ? this : convert(Format.CSC);
+    }
+
+    /**
+     * @return the fraction of entries that are non zero
+     */
+    public double density() {
+        return rows == 0 || cols == 0 ? 0 : (double) values.length / ((double) rows * cols);
+    }
+
+    public int get(int i, int j) {
+        int major = format == Format.CSR ? i : j;
+        int minor = format == Format.CSR ? j : i;
+        int p = Arrays.binarySearch(indices, pointers[major], pointers[major + 1], minor);
+        return p >= 0 ? values[p] : 0;
+    }
+
+    public int getNonZeros() {
+        return values.length;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    /*
+     * the arrays are shared with the sparse kernels in this package, they must
+     * never be written to
+     */
+    int[] pointers() {
+        return pointers;
+    }
+
+    int[] indices() {
+        return indices;
+    }
+
+    int[] values() {
+        return values;
+    }
+
+    /*
+     * switches between CSR and CSC, which is a transpose of the compressed
+     * arrays done with a counting sort
+     */
+    private SparseMatrix convert(Format target) {
+        int major = format == Format.CSR ? rows : cols;
+        int minor = format == Format.CSR ? cols : rows;
+        int[] newPointers = new int[minor + 1];
+        for (int index : indices) {
+            newPointers[index + 1]++;
+        }
+        for (int n = 0; n < minor; n++) {
+            newPointers[n + 1] += newPointers[n];
+        }
+        int[] next = Arrays.copyOf(newPointers, minor);
+        int[] newIndices = new int[values.length];
+        int[] newValues = new int[values.length];
+        for (int m = 0; m < major; m++) { // walking in major order keeps the new indices sorted
+            for (int p = pointers[m]; p < pointers[m + 1]; p++) {
+                int slot = next[indices[p]]++;
+                newIndices[slot] = m;
+                newValues[slot] = values[p];
+            }
+        }
+        return new SparseMatrix(target, rows, cols, newPointers, newIndices, newValues);
+    }
+}
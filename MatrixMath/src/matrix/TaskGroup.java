@@ -0,0 +1,110 @@
+package matrix;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks a known number of tasks that one call hands to a shared executor, so
+ * the call can wait for exactly its own tasks instead of shutting the executor
+ * down. Tasks that have not started yet are skipped once the group is
+ * cancelled, and the first exception thrown by any task is rethrown to the
+ * waiting caller
+ *
+ * @author Peter Swantek
+ *
+ */
+final class TaskGroup {
+
+    private final CountDownLatch done;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean cancelled;
+
+    /**
+     * @param tasks the number of tasks that will be wrapped with {@link #task}
+     */
+    TaskGroup(int tasks) {
+        done = new CountDownLatch(tasks);
+    }
+
+    /**
+     * Wraps a task so that it counts towards this group
+     *
+     * @param work the work to run
+     * @return a task to hand to an executor
+     */
+    Runnable task(Runnable work) {
+        return () -> {
+            try {
+                if (!cancelled) {
+                    work.run();
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+                cancelled = true; // no point running the rest
+            } finally {
+                done.countDown(); // signal that this task is done
+            }
+        };
+    }
+
+    /**
+     * Waits for every task in the group to finish. If the wait is interrupted
+     * the tasks that have not started yet are skipped
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws CompletionException if one of the tasks failed
+     */
+    void await() throws InterruptedException {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            cancel();
+            throw e;
+        }
+        Throwable t = failure.get();
+        if (t != null) {
+            throw new CompletionException(t);
+        }
+    }
+
+    /**
+     * Waits like {@link #await}, for callers that cannot hand back a partly
+     * computed result. If the wait is interrupted the tasks that have not
+     * started yet are skipped and the ones already running are waited for, so
+     * nothing is still writing the result when the interrupt is restored and
+     * the call fails
+     *
+     * @throws CompletionException if interrupted or if one of the tasks failed
+     */
+    void awaitCompletion() {
+        try {
+            await();
+        } catch (InterruptedException e) {
+            while (true) {
+                try {
+                    done.await(); // skipped tasks count down at once, running ones when they finish
+                    break;
+                } catch (InterruptedException again) {
+                    // keep waiting, the interrupt is restored below
+                }
+            }
+            Thread.currentThread().interrupt();
+            throw new CompletionException("interrupted before every task finished, the result is incomplete", e);
+        }
+    }
+
+    /**
+     * Stops tasks that have not started yet from running
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true once the group has been cancelled or a task has failed
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,172 @@
+package matrix;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over the square tiles of a rows x cols matrix. It covers a
+ * rectangle of tiles and splits by halving the longer side of that rectangle,
+ * so the two halves always hold the same number of tiles give or take a row
+ * or column of them, and the sizes are exact at every level. A parallel stream
+ * over it therefore hands every thread the same amount of work without the
+ * stream framework having to guess
+ *
+ * @author Peter Swantek
+ *
+ */
+final class TileSpliterator implements Spliterator<TileSpliterator.Tile> {
+
+    private final int rows, cols, tileSize;
+    private int tileRowLo, tileRowHi, tileColLo, tileColHi; // the rectangle of tiles still covered
+    private int tileRow; // next tile to hand out, row major within the rectangle
+    private int tileCol;
+
+    /**
+     * @param rows the rows of the matrix
+     * @param cols the columns of the matrix
+     * @param tileSize the side of a tile, the tiles on the bottom and right edges may be smaller
+     */
+    TileSpliterator(int rows, int cols, int tileSize) {
+        this(rows, cols, tileSize, 0, (rows + tileSize - 1) / tileSize, 0, cols == 0 ? 0 : (cols + tileSize - 1) / tileSize);
+    }
+
+    private TileSpliterator(int rows, int cols, int tileSize, int tileRowLo, int tileRowHi, int tileColLo, int tileColHi) {
+        this.rows = rows;
+        this.cols = cols;
+        this.tileSize = tileSize;
+        this.tileRowLo = tileRowLo;
+        this.tileRowHi = tileRowHi;
+        this.tileColLo = tileColLo;
+        this.tileColHi = tileColHi;
+        this.tileRow = tileRowLo;
+        this.tileCol = tileColLo;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Tile> action) {
+        if (tileRow >= tileRowHi || tileColLo >= tileColHi) {
+            return false;
+        }
+        action.accept(tile(tileRow, tileCol));
+        if (++tileCol == tileColHi) {
+            tileCol = tileColLo;
+            tileRow++;
+        }
+        return true;
+    }
+
+    @Override
+    public Spliterator<Tile> trySplit() {
+        if (tileRow != tileRowLo || tileCol != tileColLo) {
+            return null; // already partly consumed
+        }
+        int height = tileRowHi - tileRowLo, width = tileColHi - tileColLo;
+        if (height * (long) width < 2) {
+            return null;
+        }
+        TileSpliterator prefix;
+        if (height >= width) { // hand out the top half, keep the bottom
+            int mid = (tileRowLo + tileRowHi) >>> 1;
+            prefix = new TileSpliterator(rows, cols, tileSize, tileRowLo, mid, tileColLo, tileColHi);
+            tileRowLo = mid;
+        } else { // hand out the left half, keep the right
+            int mid = (tileColLo + tileColHi) >>> 1;
+            prefix = new TileSpliterator(rows, cols, tileSize, tileRowLo, tileRowHi, tileColLo, mid);
+            tileColLo = mid;
+        }
+        tileRow = tileRowLo;
+        tileCol = tileColLo;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return (long) (tileRowHi - tileRowLo) * (tileColHi - tileColLo) - consumed();
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    private long consumed() {
+        return (long) (tileRow - tileRowLo) * (tileColHi - tileColLo) + (tileCol - tileColLo);
+    }
+
+    private Tile tile(int tileRow, int tileCol) {
+        int rowLo = tileRow * tileSize, colLo = tileCol * tileSize;
+        return new Tile(rowLo, Math.min(rowLo + tileSize, rows), colLo, Math.min(colLo + tileSize, cols));
+    }
+
+    /**
+     * A block of the result, rows rowLo to rowHi and columns colLo to colHi
+     */
+    static final class Tile {
+
+        final int rowLo, rowHi, colLo, colHi;
+
+        Tile(int rowLo, int rowHi, int colLo, int colHi) {
+            this.rowLo = rowLo;
+            this.rowHi = rowHi;
+            this.colLo = colLo;
+            this.colHi = colHi;
+        }
+
+        /*
+         * C = A * B over this tile, sequentially, walking rows of B instead of
+         * columns
+         */
+        void multiply(int[][] A, int[][] B, int[][] C) {
+            for (int i = rowLo; i < rowHi; i++) {
+                int[] rowA = A[i];
+                int[] rowC = C[i];
+                for (int j = colLo; j < colHi; j++) {
+                    rowC[j] = 0;
+                }
+                for (int k = 0; k < B.length; k++) {
+                    int a = rowA[k];
+                    int[] rowB = B[k];
+                    for (int j = colLo; j < colHi; j++) {
+                        rowC[j] += a * rowB[j];
+                    }
+                }
+            }
+        }
+
+        void add(int[][] A, int[][] B, int[][] C) {
+            for (int i = rowLo; i < rowHi; i++) {
+                int[] rowA = A[i], rowB = B[i], rowC = C[i];
+                for (int j = colLo; j < colHi; j++) {
+                    rowC[j] = rowA[j] + rowB[j];
+                }
+            }
+        }
+
+        void multiply(IntMatrix A, IntMatrix B, IntMatrix C) {
+            int[] a = A.getData(), b = B.getData(), c = C.getData();
+            int bStride = B.getStride();
+            for (int i = rowLo; i < rowHi; i++) {
+                int rowA = A.index(i, 0), rowC = C.index(i, 0);
+                for (int j = colLo; j < colHi; j++) {
+                    c[rowC + j] = 0;
+                }
+                for (int k = 0, rowB = B.index(0, 0); k < B.getRows(); k++, rowB += bStride) {
+                    int value = a[rowA + k];
+                    for (int j = colLo; j < colHi; j++) {
+                        c[rowC + j] += value * b[rowB + j];
+                    }
+                }
+            }
+        }
+
+        void add(IntMatrix A, IntMatrix B, IntMatrix C) {
+            int[] a = A.getData(), b = B.getData(), c = C.getData();
+            for (int i = rowLo; i < rowHi; i++) {
+                int rowA = A.index(i, 0), rowB = B.index(i, 0), rowC = C.index(i, 0);
+                for (int j = colLo; j < colHi; j++) {
+                    c[rowC + j] = a[rowA + j] + b[rowB + j];
+                }
+            }
+        }
+    }
+}
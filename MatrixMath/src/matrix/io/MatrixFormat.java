@@ -0,0 +1,33 @@
+package matrix.io;
+
+/**
+ * The file formats MatrixIO reads and writes
+ *
+ * @author Peter Swantek
+ *
+ */
+public enum MatrixFormat {
+
+    /**
+     * One row per line, values separated by commas
+     */
+    CSV((byte) ','),
+
+    /**
+     * One row per line, values separated by spaces. Tabs are also accepted
+     * when reading
+     */
+    TEXT((byte) ' '),
+
+    /**
+     * A 12 byte header (the magic number IMAT, rows and columns) followed by
+     * the values row by row, all little endian ints
+     */
+    BINARY((byte) 0);
+
+    final byte separator;
+
+    MatrixFormat(byte separator) {
+        this.separator = separator;
+    }
+}
@@ -0,0 +1,491 @@
+package matrix.io;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Writes and reads int matrices as CSV, whitespace separated text or compact
+ * binary, using every core on both sides. Writing formats blocks of rows in
+ * parallel into byte buffers that are reused from one block to the next, and
+ * hands each group of finished blocks to the channel in one gather write
+ * while the next group is being formatted. Reading text first finds line
+ * boundaries to split the file into byte ranges, counts the rows in each range
+ * in parallel, then parses every range in parallel straight into its rows.
+ * Binary files are read as parallel positional reads of blocks of rows. No
+ * Strings are created per value in either direction
+ *
+ * @author Peter Swantek
+ *
+ */
+public class MatrixIO {
+
+    public static final int DEFAULT_BLOCK_ROWS = 256;
+
+    private static final int MAGIC = 0x54414D49; // IMAT when written little endian
+    private static final int HEADER_BYTES = 12;
+    private static final int MAX_TEXT_BYTES = 12; // sign, 10 digits and a separator
+    private static final int READ_CHUNK = 1 << 20; // bytes read at a time while scanning text
+    private static final long MAX_RANGE = 8 << 20; // most bytes of text parsed by one task
+
+    private final ForkJoinPool pool;
+    private final int blockRows;
+
+    /**
+     * Creates a reader and writer that uses the common fork/join pool and
+     * formats 256 rows per block
+     */
+    public MatrixIO() {
+        this(ForkJoinPool.commonPool(), DEFAULT_BLOCK_ROWS);
+    }
+
+    /**
+     * Creates a reader and writer
+     *
+     * @param pool the fork/join pool to format and parse on
+     * @param blockRows the number of rows formatted into one buffer
+     */
+    public MatrixIO(ForkJoinPool pool, int blockRows) {
+        if (blockRows < 1) {
+            throw new IllegalArgumentException("block must have at least one row: " + blockRows);
+        }
+        this.pool = pool;
+        this.blockRows = blockRows;
+    }
+
+    /**
+     * Writes a matrix to a file, replacing it if it exists
+     *
+     * @param A the matrix to write
+     * @param path the file to write
+     * @param format how to write it
+     * @throws IOException if the file cannot be written
+     */
+    public void write(int[][] A, Path path, MatrixFormat format) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(A, channel, format);
+        }
+    }
+
+    /**
+     * Writes a matrix to a channel, with gather writes if the channel supports
+     * them
+     *
+     * @param A the matrix to write
+     * @param out where to write it
+     * @param format how to write it
+     * @throws IOException if the channel cannot be written
+     */
+    public void write(int[][] A, WritableByteChannel out, MatrixFormat format) throws IOException {
+        int rows = A.length;
+        int cols = rows == 0 ? 0 : A[0].length;
+        if (format == MatrixFormat.BINARY) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putInt(rows).putInt(cols);
+            header.flip();
+            writeFully(out, new ByteBuffer[] { header }, 1);
+        }
+        int blocks = (rows + blockRows - 1) / blockRows;
+        int window = 2 * pool.getParallelism(); // blocks per gather write
+        ByteBuffer[][] buffers = new ByteBuffer[2][window]; // one group being formatted while the other is written
+
+        CompletableFuture<Void> formatting = format(A, cols, format, 0, blocks, buffers[0]);
+        for (int first = 0, group = 0; first < blocks; first += window, group ^= 1) {
+            join(formatting);
+            int next = first + window;
+            formatting = next < blocks ? format(A, cols, format, next, blocks, buffers[group ^ 1]) : null;
+            writeFully(out, buffers[group], Math.min(window, blocks - first));
+        }
+    }
+
+    /**
+     * Prints a matrix to a stream as whitespace separated text, a fast
+     * replacement for printing it one row at a time
+     *
+     * @param A the matrix to print
+     * @param out the stream to print to, System.out for example
+     * @throws IOException if the stream cannot be written
+     */
+    public void print(int[][] A, PrintStream out) throws IOException {
+        out.flush();
+        write(A, Channels.newChannel(out), MatrixFormat.TEXT);
+        out.flush();
+    }
+
+    /**
+     * Reads a matrix from a file
+     *
+     * @param path the file to read
+     * @param format how it was written
+     * @return the matrix
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public int[][] read(Path path, MatrixFormat format) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return format == MatrixFormat.BINARY ? readBinary(channel, path) : readText(channel, path, format);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /*
+     * starts formatting the blocks of one group, each into its own buffer
+     */
+    private CompletableFuture<Void> format(int[][] A, int cols, MatrixFormat format, int first, int blocks, ByteBuffer[] buffers) {
+        int count = Math.min(buffers.length, blocks - first);
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[count];
+        for (int b = 0; b < count; b++) {
+            int slot = b;
+            int rowLo = (first + b) * blockRows;
+            int rowHi = Math.min(A.length, rowLo + blockRows);
+            tasks[b] = CompletableFuture.runAsync(() -> buffers[slot] = formatBlock(A, rowLo, rowHi, cols, format, buffers[slot]), pool);
+        }
+        return CompletableFuture.allOf(tasks);
+    }
+
+    private static ByteBuffer formatBlock(int[][] A, int rowLo, int rowHi, int cols, MatrixFormat format, ByteBuffer buffer) {
+        int rows = rowHi - rowLo;
+        int capacity = format == MatrixFormat.BINARY ? rows * cols * 4 : rows * (cols * MAX_TEXT_BYTES + 1);
+        if (buffer == null || buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.clear();
+        if (format == MatrixFormat.BINARY) {
+            for (int i = rowLo; i < rowHi; i++) {
+                buffer.asIntBuffer().put(A[i]);
+                buffer.position(buffer.position() + cols * 4);
+            }
+        } else {
+            byte[] bytes = buffer.array();
+            int pos = 0;
+            for (int i = rowLo; i < rowHi; i++) {
+                int[] row = A[i];
+                for (int j = 0; j < cols; j++) {
+                    if (j > 0) {
+                        bytes[pos++] = format.separator;
+                    }
+                    pos = putInt(bytes, pos, row[j]);
+                }
+                bytes[pos++] = '\n';
+            }
+            buffer.position(pos);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /*
+     * writes the decimal digits of value at pos and returns the position
+     * after them
+     */
+    private static int putInt(byte[] bytes, int pos, int value) {
+        long v = value; // so that -Integer.MIN_VALUE fits
+        if (v < 0) {
+            bytes[pos++] = '-';
+            v = -v;
+        }
+        int start = pos;
+        do {
+            bytes[pos++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int lo = start, hi = pos - 1; lo < hi; lo++, hi--) {
+            byte temp = bytes[lo];
+            bytes[lo] = bytes[hi];
+            bytes[hi] = temp;
+        }
+        return pos;
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer[] buffers, int count) throws IOException {
+        if (out instanceof GatheringByteChannel) {
+            GatheringByteChannel gathering = (GatheringByteChannel) out;
+            while (buffers[count - 1].hasRemaining()) {
+                gathering.write(buffers, 0, count);
+            }
+            return;
+        }
+        for (int b = 0; b < count; b++) {
+            while (buffers[b].hasRemaining()) {
+                out.write(buffers[b]);
+            }
+        }
+    }
+
+    private int[][] readBinary(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+            throw new IOException(path + " is not a binary matrix file");
+        }
+        int rows = header.getInt();
+        int cols = header.getInt();
+        if (rows < 0 || cols < 0 || channel.size() != HEADER_BYTES + 4L * rows * cols) {
+            throw new IOException(path + " has the wrong size for a " + rows + "x" + cols + " matrix");
+        }
+        int[][] A = new int[rows][cols];
+        int blocks = (rows + blockRows - 1) / blockRows;
+        parallel(blocks, block -> {
+            int rowLo = block * blockRows;
+            int rowHi = Math.min(rows, rowLo + blockRows);
+            ByteBuffer buffer = ByteBuffer.allocate((rowHi - rowLo) * cols * 4).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, buffer, HEADER_BYTES + 4L * rowLo * cols);
+            buffer.flip();
+            for (int i = rowLo; i < rowHi; i++) {
+                buffer.asIntBuffer().get(A[i]);
+                buffer.position(buffer.position() + cols * 4);
+            }
+        });
+        return A;
+    }
+
+    private int[][] readText(FileChannel channel, Path path, MatrixFormat format) throws IOException {
+        long size = channel.size();
+        int ranges = (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.max(4L * pool.getParallelism(), (size + MAX_RANGE - 1) / MAX_RANGE)));
+
+        // every range but the first starts just after the first newline at or after its share of the file
+        long[] starts = new long[ranges + 1];
+        starts[ranges] = size;
+        parallel(ranges - 1, r -> starts[r + 1] = lineStartFrom(channel, size * (r + 1) / ranges - 1, size));
+
+        // count the rows of each range to know where its rows go
+        int[] rowCounts = new int[ranges];
+        parallel(ranges, r -> {
+            RowScanner scanner = new RowScanner(path, format, null, 0, -1);
+            scan(channel, starts[r], Math.max(starts[r], starts[r + 1]), scanner);
+            rowCounts[r] = scanner.finish();
+        });
+        int rows = 0;
+        int[] firstRows = new int[ranges];
+        for (int r = 0; r < ranges; r++) {
+            firstRows[r] = rows;
+            rows += rowCounts[r];
+        }
+        if (rows == 0) {
+            return new int[0][0];
+        }
+
+        RowScanner first = new RowScanner(path, format, null, 0, -1);
+        scanFirstRow(channel, size, first);
+        int cols = first.firstRowValues;
+
+        int[][] A = new int[rows][cols];
+        parallel(ranges, r -> {
+            RowScanner scanner = new RowScanner(path, format, A, firstRows[r], cols);
+            scan(channel, starts[r], Math.max(starts[r], starts[r + 1]), scanner);
+            scanner.finish();
+        });
+        return A;
+    }
+
+    /*
+     * the position just after the first newline at or after from, or the end
+     * of the file
+     */
+    private static long lineStartFrom(FileChannel channel, long from, long size) {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (long position = Math.max(0, from); position < size; position += buffer.limit()) {
+            buffer.clear();
+            readFully(channel, buffer, position);
+            buffer.flip();
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static void scan(FileChannel channel, long start, long end, RowScanner scanner) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_CHUNK, Math.max(1, end - start)));
+        for (long position = start; position < end; position += buffer.limit()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            readFully(channel, buffer, position);
+            buffer.flip();
+            scanner.accept(buffer.array(), buffer.limit(), position);
+        }
+    }
+
+    private static void scanFirstRow(FileChannel channel, long size, RowScanner scanner) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(READ_CHUNK, Math.max(1, size)));
+        for (long position = 0; position < size && scanner.firstRowValues < 0; position += buffer.limit()) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - position));
+            readFully(channel, buffer, position);
+            buffer.flip();
+            scanner.accept(buffer.array(), buffer.limit(), position);
+        }
+        scanner.finish();
+    }
+
+    /*
+     * fills the buffer from the given position, stopping early only at the
+     * end of the file
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) {
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    return;
+                }
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface Task {
+        void run(int index);
+    }
+
+    /*
+     * runs the task for every index on the pool, an UncheckedIOException
+     * thrown by a task reaches the caller as it is
+     */
+    private void parallel(int count, Task task) {
+        pool.submit(() -> IntStream.range(0, count).parallel().forEach(task::run)).join();
+    }
+
+    private static void join(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /*
+     * a streaming parser for the rows of one range of a text file. Without a
+     * target it only counts rows, and remembers how many values the first row
+     * has. A row is a line with at least one value, blank lines are skipped
+     */
+    private static final class RowScanner {
+
+        private final Path path;
+        private final byte separator;
+        private final boolean anyWhitespace;
+        private final int[][] target;
+        private final int cols;
+
+        private int row;
+        private int col;
+        private long value;
+        private boolean negative;
+        private boolean inNumber;
+        private boolean separated; // a comma was seen and no value after it yet
+        private int rows;
+        int firstRowValues = -1;
+
+        RowScanner(Path path, MatrixFormat format, int[][] target, int firstRow, int cols) {
+            this.path = path;
+            this.separator = format.separator;
+            this.anyWhitespace = format == MatrixFormat.TEXT;
+            this.target = target;
+            this.row = firstRow;
+            this.cols = cols;
+        }
+
+        void accept(byte[] bytes, int length, long position) {
+            for (int i = 0; i < length; i++) {
+                byte c = bytes[i];
+                if (c >= '0' && c <= '9') {
+                    value = value * 10 + (c - '0');
+                    inNumber = true;
+                    if (value > 1L + Integer.MAX_VALUE) {
+                        throw malformed("value out of range", position + i);
+                    }
+                } else if (c == '-' && !inNumber && !negative) {
+                    negative = true;
+                } else if (c == '\n') {
+                    endValue(position + i);
+                    endRow(position + i);
+                } else if (c == ' ' || c == '\t' || c == '\r' || (anyWhitespace && c == separator)) {
+                    endValue(position + i);
+                } else if (c == separator) {
+                    endValue(position + i);
+                    if (separated || col == 0) {
+                        throw malformed("empty value", position + i);
+                    }
+                    separated = true;
+                } else {
+                    throw malformed("unexpected character '" + (char) c + "'", position + i);
+                }
+            }
+        }
+
+        /*
+         * ends the last row if the range did not end with a newline, returns the
+         * number of rows seen
+         */
+        int finish() {
+            endValue(-1);
+            endRow(-1);
+            return rows;
+        }
+
+        private void endValue(long position) {
+            if (!inNumber) {
+                if (negative) {
+                    throw malformed("sign without digits", position);
+                }
+                return;
+            }
+            long v = negative ? -value : value;
+            if (v > Integer.MAX_VALUE) {
+                throw malformed("value out of range", position);
+            }
+            if (target != null) {
+                if (col >= cols) {
+                    throw malformed("row " + row + " has more than " + cols + " values", position);
+                }
+                target[row][col] = (int) v;
+            }
+            col++;
+            separated = false;
+            value = 0;
+            negative = false;
+            inNumber = false;
+        }
+
+        private void endRow(long position) {
+            if (separated) {
+                throw malformed("empty value at the end of row " + row, position);
+            }
+            if (col == 0) {
+                return; // blank line
+            }
+            if (firstRowValues < 0) {
+                firstRowValues = col;
+            }
+            if (target != null && col != cols) {
+                throw malformed("row " + row + " has " + col + " values, expected " + cols, position);
+            }
+            row++;
+            rows++;
+            col = 0;
+        }
+
+        private UncheckedIOException malformed(String problem, long position) {
+            return new UncheckedIOException(new IOException(path + " is malformed at byte " + position + ": " + problem));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package matrix.shard;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One end of a coordinator to worker socket. Everything sent is a frame: a 24
+ * byte little endian header of type, id, rows, cols and a long of nanoseconds,
+ * followed by rows x cols ints of a block of a matrix, row by row. Blocks are
+ * copied straight between the matrix rows and a reusable direct buffer, so no
+ * per value objects or per frame arrays are created. Sending and receiving
+ * have separate buffers, so one thread can send while another receives
+ *
+ * @author Peter Swantek
+ *
+ */
+final class Connection implements AutoCloseable {
+
+    static final int HELLO = 1; // worker to coordinator, id is the worker number
+    static final int TILE = 2; // a block of columns of B, id is the tile number
+    static final int BAND = 3; // a band of rows of A to multiply by the last tile, id is the task number
+    static final int RESULT = 4; // worker to coordinator, the band times the tile, nanos is the compute time
+    static final int SHUTDOWN = 5;
+
+    static final int HEADER_BYTES = 24;
+    private static final int BUFFER_BYTES = 1 << 20;
+
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private long bytesSent, bytesReceived;
+
+    // the header of the last frame received
+    int type, id, rows, cols;
+    long nanos;
+
+    Connection(SocketChannel channel) {
+        this.channel = channel;
+        in.limit(0); // nothing read yet
+    }
+
+    /**
+     * Sends a frame without a body
+     */
+    void send(int type, int id, long nanos) throws IOException {
+        putHeader(type, id, 0, 0, nanos);
+        flush();
+    }
+
+    /**
+     * Sends a frame whose body is the block of src starting at rowLo, colLo
+     */
+    void send(int type, int id, long nanos, int[][] src, int rowLo, int rows, int colLo, int cols) throws IOException {
+        putHeader(type, id, rows, cols, nanos);
+        for (int i = rowLo; i < rowLo + rows; i++) {
+            int[] row = src[i];
+            for (int j = 0; j < cols;) {
+                if (out.remaining() < Integer.BYTES) {
+                    flush();
+                }
+                int count = Math.min(cols - j, out.remaining() / Integer.BYTES);
+                out.asIntBuffer().put(row, colLo + j, count);
+                out.position(out.position() + count * Integer.BYTES);
+                j += count;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Reads the header of the next frame into type, id, rows, cols and nanos
+     */
+    void receiveHeader() throws IOException {
+        require(HEADER_BYTES);
+        type = in.getInt();
+        id = in.getInt();
+        rows = in.getInt();
+        cols = in.getInt();
+        nanos = in.getLong();
+        if (rows < 0 || cols < 0) {
+            throw new IOException("malformed frame of " + rows + "x" + cols);
+        }
+    }
+
+    /**
+     * Reads the body of the frame whose header was just received into the
+     * block of dst starting at rowLo, colLo
+     */
+    void receiveBody(int[][] dst, int rowLo, int colLo) throws IOException {
+        for (int i = rowLo; i < rowLo + rows; i++) {
+            int[] row = dst[i];
+            for (int j = 0; j < cols;) {
+                if (in.remaining() < Integer.BYTES) {
+                    require(Integer.BYTES);
+                }
+                int count = Math.min(cols - j, in.remaining() / Integer.BYTES);
+                in.asIntBuffer().get(row, colLo + j, count);
+                in.position(in.position() + count * Integer.BYTES);
+                j += count;
+            }
+        }
+    }
+
+    long getBytesSent() {
+        return bytesSent;
+    }
+
+    long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void putHeader(int type, int id, int rows, int cols, long nanos) throws IOException {
+        if (out.remaining() < HEADER_BYTES) {
+            flush();
+        }
+        out.putInt(type).putInt(id).putInt(rows).putInt(cols).putLong(nanos);
+    }
+
+    private void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            bytesSent += channel.write(out);
+        }
+        out.clear();
+    }
+
+    /*
+     * reads until at least the given number of bytes are buffered
+     */
+    private void require(int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return;
+        }
+        in.compact();
+        while (in.position() < bytes) {
+            int read = channel.read(in);
+            if (read < 0) {
+                throw new EOFException("connection closed in the middle of a frame");
+            }
+            bytesReceived += read;
+        }
+        in.flip();
+    }
+}
@@ -0,0 +1,88 @@
+package matrix.shard;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import matrix.MatMathImplTiled;
+
+/**
+ * The worker side of a sharded multiply, run in its own JVM. It connects to
+ * the coordinator, introduces itself, and then answers frames until it is told
+ * to shut down: a tile of B replaces the one it holds, and every band of A is
+ * multiplied by the current tile with the tiled fork/join kernel and sent
+ * back. A worker only ever holds one tile of B, one band of A and the band of
+ * the result. ShardedMatMath starts workers itself, the command line is
+ *
+ * java matrix.shard.ShardWorker tcp host port worker threads
+ * java matrix.shard.ShardWorker unix socketPath worker threads
+ *
+ * @author Peter Swantek
+ *
+ */
+public class ShardWorker {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean unix = args[0].equals("unix");
+        int next = unix ? 2 : 3;
+        int worker = Integer.parseInt(args[next]);
+        int threads = Integer.parseInt(args[next + 1]);
+
+        SocketChannel channel = unix ? SocketChannel.open(UnixDomainSocketAddress.of(Paths.get(args[1])))
+                : SocketChannel.open(new InetSocketAddress(args[1], Integer.parseInt(args[2])));
+        if (!unix) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (Connection connection = new Connection(channel)) {
+            serve(connection, worker, new MatMathImplTiled(pool, MatMathImplTiled.DEFAULT_TILE_SIZE));
+        } catch (IOException e) {
+            System.err.println("worker " + worker + " lost its coordinator: " + e.getMessage()); // it closes every connection when a multiply fails
+            System.exit(1);
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(2, TimeUnit.MINUTES);
+        }
+    }
+
+    private static void serve(Connection connection, int worker, MatMathImplTiled tiled) throws IOException {
+        connection.send(Connection.HELLO, worker, 0);
+        int[][] tile = new int[0][0];
+        while (true) {
+            try {
+                connection.receiveHeader();
+            } catch (EOFException e) {
+                return; // the coordinator went away without saying goodbye
+            }
+            switch (connection.type) {
+            case Connection.TILE:
+                tile = new int[connection.rows][connection.cols];
+                connection.receiveBody(tile, 0, 0);
+                break;
+            case Connection.BAND:
+                if (connection.cols != tile.length) {
+                    throw new IOException("band of " + connection.rows + "x" + connection.cols + " does not fit a tile of " + tile.length + " rows");
+                }
+                int[][] band = new int[connection.rows][connection.cols];
+                connection.receiveBody(band, 0, 0);
+                int width = tile.length == 0 ? 0 : tile[0].length;
+                int[][] result = new int[band.length][width];
+                long start = System.nanoTime();
+                tiled.multiply(band, tile, result);
+                long nanos = System.nanoTime() - start;
+                connection.send(Connection.RESULT, connection.id, nanos, result, 0, result.length, 0, width);
+                break;
+            case Connection.SHUTDOWN:
+                return;
+            default:
+                throw new IOException("unknown frame type " + connection.type);
+            }
+        }
+    }
+}
@@ -0,0 +1,510 @@
+package matrix.shard;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import matrix.MatMath;
+import matrix.MatMathImplTiled;
+
+/**
+ * Provides an implementation of the MatMath interface that multiplies across
+ * several worker JVMs on the same machine, so neither the heap nor the cores
+ * of one JVM limit the product. The coordinator starts the workers, they
+ * connect back over a local TCP or Unix domain socket, and every multiply is
+ * split into tasks of one band of rows of A times one tile of columns of B.
+ * Tasks are handed out tile by tile to whichever worker asks next, so fast
+ * workers take more of them, and a tile is only sent to a worker when its
+ * next task needs a different tile than the last one. Each worker has a
+ * sender and a receiver thread on the coordinator and up to two bands in
+ * flight, so a worker receives its next band while it computes the current
+ * one, and results are copied into C as they stream back. Multiplies run one
+ * at a time since they share the connections. Addition moves more bytes than
+ * it computes, so it runs locally. Per worker throughput is kept in
+ * WorkerStats. Closing this object shuts the workers down
+ *
+ * @author Peter Swantek
+ *
+ */
+public class ShardedMatMath implements MatMath, AutoCloseable {
+
+    /**
+     * The kind of socket the workers connect to the coordinator with
+     */
+    public enum Transport {
+        TCP, UNIX
+    }
+
+    private static final int WINDOW = 2; // bands in flight per worker
+    private static final int TASKS_PER_WORKER = 4; // when the band size is picked automatically
+    private static final long CONNECT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final Worker[] workers;
+    private final int bandRows, tileCols;
+    private final ServerSocketChannel server;
+    private final Path socketDir; // only for Unix domain sockets
+    private final ExecutorService handlers;
+    private final MatMathImplTiled local = new MatMathImplTiled();
+    private boolean closed, broken; // broken once a multiply has failed and the connections are closed
+
+    /**
+     * Starts workers that connect over TCP on the loopback interface, with the
+     * band and tile sizes picked automatically
+     *
+     * @param workers the number of worker JVMs to start
+     * @throws IOException if the workers cannot be started or do not connect
+     */
+    public ShardedMatMath(int workers) throws IOException {
+        this(workers, Transport.TCP, 0, 0);
+    }
+
+    /**
+     * Starts the workers, each with an equal share of the cores
+     *
+     * @param workers the number of worker JVMs to start
+     * @param transport the kind of socket the workers connect with
+     * @param bandRows rows of A in a task, 0 picks enough tasks for a few per worker
+     * @param tileCols columns of B in a task, 0 sends all of B, which every worker then has to hold
+     * @param jvmArgs extra arguments for the worker JVMs, such as a heap size
+     * @throws IOException if the workers cannot be started or do not connect
+     */
+    public ShardedMatMath(int workers, Transport transport, int bandRows, int tileCols, String... jvmArgs) throws IOException {
+        if (workers < 1) {
+            throw new IllegalArgumentException("need at least one worker: " + workers);
+        }
+        if (bandRows < 0 || tileCols < 0) {
+            throw new IllegalArgumentException("band rows and tile columns must not be negative: " + bandRows + ", " + tileCols);
+        }
+        this.bandRows = bandRows;
+        this.tileCols = tileCols;
+        this.workers = new Worker[workers];
+        AtomicInteger threads = new AtomicInteger();
+        this.handlers = Executors.newFixedThreadPool(2 * workers, r -> {
+            Thread t = new Thread(r, "shard-coordinator-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        List<String> address;
+        if (transport == Transport.UNIX) {
+            socketDir = Files.createTempDirectory("matmath-shard");
+            Path socket = socketDir.resolve("coordinator.sock");
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX).bind(UnixDomainSocketAddress.of(socket));
+            address = Arrays.asList("unix", socket.toString());
+        } else {
+            socketDir = null;
+            server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            address = Arrays.asList("tcp", InetAddress.getLoopbackAddress().getHostAddress(),
+                    Integer.toString(((InetSocketAddress) server.getLocalAddress()).getPort()));
+        }
+        try {
+            Process[] processes = start(workers, address, jvmArgs);
+            connect(processes, transport);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Multiplies 2 matrices across the workers and stores the result in a
+     * third array
+     *
+     * @param A the first matrix to multiply
+     * @param B the second matrix to multiply
+     * @param C matrix which will store the result of the multiplication
+     */
+    @Override
+    public synchronized void multiply(int[][] A, int[][] B, int[][] C) {
+        checkOpen();
+        int rows = A.length, inner = B.length, cols = C.length == 0 ? 0 : C[0].length;
+        if (C.length != rows || (rows > 0 && A[0].length != inner) || (rows > 0 && inner > 0 && B[0].length != cols)) {
+            throw new IllegalArgumentException("cannot multiply " + rows + "x" + (rows == 0 ? 0 : A[0].length) + " by " + inner + "x"
+                    + (inner == 0 ? 0 : B[0].length) + " into " + C.length + "x" + cols);
+        }
+        if (rows == 0 || cols == 0) {
+            return;
+        }
+        if (inner == 0) {
+            for (int[] row : C) {
+                Arrays.fill(row, 0);
+            }
+            return;
+        }
+
+        int band = bandRows > 0 ? Math.min(bandRows, rows) : Math.max(1, (rows + workers.length * TASKS_PER_WORKER - 1) / (workers.length * TASKS_PER_WORKER));
+        int width = tileCols > 0 ? Math.min(tileCols, cols) : cols;
+        int bands = (rows + band - 1) / band;
+        int tasks = bands * ((cols + width - 1) / width);
+        AtomicInteger next = new AtomicInteger();
+
+        CompletionService<Void> done = new ExecutorCompletionService<>(handlers);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (Worker worker : workers) {
+            BlockingQueue<Integer> sent = new LinkedBlockingQueue<>();
+            Semaphore window = new Semaphore(WINDOW);
+            worker.start = System.nanoTime();
+            futures.add(done.submit(() -> {
+                worker.send(A, B, next, tasks, bands, band, width, sent, window);
+                return null;
+            }));
+            futures.add(done.submit(() -> {
+                worker.receive(C, bands, band, width, inner, sent, window);
+                return null;
+            }));
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                done.take().get();
+            }
+        } catch (ExecutionException e) {
+            fail(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            throw new IllegalStateException("sharded multiply failed", cause);
+        } catch (InterruptedException e) {
+            fail(futures);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while multiplying", e);
+        }
+    }
+
+    /**
+     * Adds two matrices together on this JVM and stores the result in a third
+     * matrix
+     *
+     * @param A a matrix to be added
+     * @param B a matrix to be added
+     * @param C matrix that stores the result of adding 2 matrices together
+     */
+    @Override
+    public void add(int[][] A, int[][] B, int[][] C) {
+        local.add(A, B, C);
+    }
+
+    /**
+     * Print out a matrix
+     *
+     * @param A the matrix to be printed
+     */
+    @Override
+    public void print(int[][] A) {
+        for (int[] subarray : A) {
+            System.out.println(Arrays.toString(subarray));
+        }
+    }
+
+    /**
+     * @return what every worker has done since it started or since the last reset
+     */
+    public synchronized List<WorkerStats> getStats() {
+        List<WorkerStats> stats = new ArrayList<>();
+        for (Worker worker : workers) {
+            stats.add(worker.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * Starts the statistics of every worker over from zero
+     */
+    public synchronized void resetStats() {
+        for (Worker worker : workers) {
+            worker.reset();
+        }
+    }
+
+    /**
+     * Tells the workers to exit and waits up to 2 minutes for them, workers
+     * still running after that, or that never connected, are killed
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Worker worker : workers) {
+            if (worker != null && worker.connection != null) {
+                try {
+                    worker.connection.send(Connection.SHUTDOWN, 0, 0);
+                } catch (IOException e) {
+                    // the worker is already gone
+                }
+            }
+        }
+        closeConnections();
+        try {
+            server.close();
+            if (socketDir != null) {
+                Files.deleteIfExists(socketDir.resolve("coordinator.sock"));
+                Files.deleteIfExists(socketDir);
+            }
+        } catch (IOException e) {
+            // nothing left to clean up that matters
+        }
+        handlers.shutdown();
+        try {
+            handlers.awaitTermination(2, TimeUnit.MINUTES); // wait 2 minutes to shut down
+            for (Worker worker : workers) {
+                if (worker != null && (worker.connection == null || !worker.process.waitFor(2, TimeUnit.MINUTES))) {
+                    worker.process.destroyForcibly();
+                }
+            }
+        } catch (InterruptedException e) {
+            handlers.shutdownNow(); // force shut down if we get interrupted
+            for (Worker worker : workers) {
+                if (worker != null) {
+                    worker.process.destroyForcibly();
+                }
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * starts the worker JVMs with the class path of this one
+     */
+    private Process[] start(int count, List<String> address, String[] jvmArgs) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / count);
+        Process[] processes = new Process[count];
+        for (int i = 0; i < count; i++) {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.addAll(Arrays.asList(jvmArgs));
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ShardWorker.class.getName());
+            command.addAll(address);
+            command.add(Integer.toString(i));
+            command.add(Integer.toString(threads));
+            processes[i] = new ProcessBuilder(command).inheritIO().start();
+            workers[i] = new Worker(i, processes[i]);
+        }
+        return processes;
+    }
+
+    /*
+     * accepts a connection from every worker, giving up if one of them dies
+     * or they take too long
+     */
+    private void connect(Process[] processes, Transport transport) throws IOException {
+        long deadline = System.nanoTime() + CONNECT_TIMEOUT_NANOS;
+        int connected = 0;
+        server.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            while (connected < processes.length) {
+                for (Process process : processes) {
+                    if (!process.isAlive()) {
+                        throw new IOException("a worker exited with status " + process.exitValue() + " before connecting");
+                    }
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new IOException("only " + connected + " of " + processes.length + " workers connected");
+                }
+                selector.select(100);
+                selector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = server.accept()) != null) {
+                    channel.configureBlocking(true);
+                    if (transport == Transport.TCP) {
+                        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    }
+                    Connection connection = new Connection(channel);
+                    connection.receiveHeader();
+                    if (connection.type != Connection.HELLO || connection.id < 0 || connection.id >= workers.length
+                            || workers[connection.id].connection != null) {
+                        connection.close();
+                        throw new IOException("unexpected connection to the coordinator");
+                    }
+                    workers[connection.id].connection = connection;
+                    connected++;
+                }
+            }
+        }
+    }
+
+    /*
+     * closes every connection so any handler still blocked on a socket wakes
+     * up, and cancels the rest
+     */
+    private synchronized void fail(List<Future<Void>> futures) {
+        broken = true;
+        closeConnections();
+        for (Future<Void> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    private void closeConnections() {
+        for (Worker worker : workers) {
+            if (worker != null && worker.connection != null) {
+                try {
+                    worker.connection.close();
+                } catch (IOException e) {
+                    // closing anyway
+                }
+            }
+        }
+    }
+
+    private synchronized void checkOpen() {
+        if (closed || broken) {
+            throw new IllegalStateException(closed ? "the workers have been shut down" : "a worker failed and the workers were disconnected");
+        }
+    }
+
+    /*
+     * one worker JVM, its connection and its statistics. The sender thread
+     * writes the fields about sending and the receiver thread the rest, and
+     * they are only read once both have finished
+     */
+    private static final class Worker {
+
+        private final int index;
+        private final Process process;
+        private Connection connection;
+        private int tile; // the tile the worker holds, -1 for none of the current B
+        private long start, bands, multiplyAdds, computeNanos, busyNanos;
+        private long sentBase, receivedBase; // connection totals at the last reset
+
+        Worker(int index, Process process) {
+            this.index = index;
+            this.process = process;
+        }
+
+        /*
+         * claims tasks while the window has room and sends their tile, if the
+         * worker does not hold it yet, and their band. The receiver learns
+         * which tasks to expect from the queue, -1 ends it
+         */
+        void send(int[][] A, int[][] B, AtomicInteger next, int tasks, int bandsPerTile, int band, int width, BlockingQueue<Integer> sent,
+                Semaphore window) throws IOException, InterruptedException {
+            tile = -1;
+            try {
+                while (true) {
+                    window.acquire();
+                    int task = next.getAndIncrement();
+                    if (task >= tasks) {
+                        break;
+                    }
+                    int taskTile = task / bandsPerTile;
+                    int rowLo = task % bandsPerTile * band, colLo = taskTile * width;
+                    if (taskTile != tile) {
+                        connection.send(Connection.TILE, taskTile, 0, B, 0, B.length, colLo, Math.min(width, B[0].length - colLo));
+                        tile = taskTile;
+                    }
+                    connection.send(Connection.BAND, task, 0, A, rowLo, Math.min(band, A.length - rowLo), 0, B.length);
+                    sent.add(task);
+                }
+            } finally {
+                sent.add(-1);
+            }
+        }
+
+        /*
+         * copies each result into C as soon as it arrives, in the order the
+         * tasks were sent
+         */
+        void receive(int[][] C, int bandsPerTile, int band, int width, int inner, BlockingQueue<Integer> sent, Semaphore window)
+                throws IOException, InterruptedException {
+            int task;
+            while ((task = sent.take()) >= 0) {
+                int rowLo = task % bandsPerTile * band, colLo = task / bandsPerTile * width;
+                int rows = Math.min(band, C.length - rowLo), cols = Math.min(width, C[0].length - colLo);
+                connection.receiveHeader();
+                if (connection.type != Connection.RESULT || connection.id != task || connection.rows != rows || connection.cols != cols) {
+                    throw new IOException("worker " + index + " answered task " + task + " with frame " + connection.type + " for task "
+                            + connection.id + " of " + connection.rows + "x" + connection.cols);
+                }
+                connection.receiveBody(C, rowLo, colLo);
+                bands++;
+                multiplyAdds += (long) rows * cols * inner;
+                computeNanos += connection.nanos;
+                window.release();
+            }
+            busyNanos += System.nanoTime() - start;
+        }
+
+        WorkerStats stats() {
+            long sentBytes = connection == null ? 0 : connection.getBytesSent() - sentBase;
+            long receivedBytes = connection == null ? 0 : connection.getBytesReceived() - receivedBase;
+            return new WorkerStats(index, bands, multiplyAdds, sentBytes, receivedBytes, computeNanos, busyNanos);
+        }
+
+        void reset() {
+            bands = multiplyAdds = computeNanos = busyNanos = 0;
+            if (connection != null) {
+                sentBase = connection.getBytesSent();
+                receivedBase = connection.getBytesReceived();
+            }
+        }
+    }
+
+    /**
+     * Multiplies two random square matrices across forked workers, checks the
+     * product against one computed locally and prints what each worker did
+     *
+     * java matrix.shard.ShardedMatMath [workers] [size] [tcp|unix] [tileCols]
+     */
+    public static void main(String[] args) throws IOException {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+        Transport transport = args.length > 2 ? Transport.valueOf(args[2].toUpperCase()) : Transport.TCP;
+        int tileCols = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+        Random random = new Random(42);
+        int[][] A = new int[size][size], B = new int[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                A[i][j] = random.nextInt(100);
+                B[i][j] = random.nextInt(100);
+            }
+        }
+        int[][] C = new int[size][size], expected = new int[size][size];
+        new MatMathImplTiled().multiply(A, B, expected);
+
+        try (ShardedMatMath sharded = new ShardedMatMath(workers, transport, 0, tileCols)) {
+            sharded.multiply(A, B, C); // warm up the workers' kernels
+            sharded.resetStats();
+            long start = System.nanoTime();
+            sharded.multiply(A, B, C);
+            long nanos = System.nanoTime() - start;
+            System.out.println("Sharded " + size + "x" + size + " multiply over " + workers + " " + transport + " workers: " + nanos / 1000000
+                    + " ms, " + (Arrays.deepEquals(C, expected) ? "matches" : "DOES NOT MATCH") + " the local product");
+            for (WorkerStats stats : sharded.getStats()) {
+                System.out.println(stats);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package matrix.shard;
+
+/**
+ * What one worker of a ShardedMatMath has done since it started or since the
+ * statistics were last reset. Compute time is measured by the worker around
+ * its kernel, busy time by the coordinator from the first band it sends the
+ * worker in a multiply to the last result it gets back, so the gap between the
+ * two is what the sockets and the copies cost
+ *
+ * @author Peter Swantek
+ *
+ */
+public final class WorkerStats {
+
+    private final int worker;
+    private final long bands, multiplyAdds, bytesSent, bytesReceived, computeNanos, busyNanos;
+
+    WorkerStats(int worker, long bands, long multiplyAdds, long bytesSent, long bytesReceived, long computeNanos, long busyNanos) {
+        this.worker = worker;
+        this.bands = bands;
+        this.multiplyAdds = multiplyAdds;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.computeNanos = computeNanos;
+        this.busyNanos = busyNanos;
+    }
+
+    /**
+     * @return the number of the worker, from 0
+     */
+    public int getWorker() {
+        return worker;
+    }
+
+    /**
+     * @return the number of bands the worker multiplied
+     */
+    public long getBands() {
+        return bands;
+    }
+
+    /**
+     * @return the multiply-adds in those bands
+     */
+    public long getMultiplyAdds() {
+        return multiplyAdds;
+    }
+
+    /**
+     * @return bytes the coordinator sent to the worker, tiles of B and bands of A
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return bytes the coordinator received from the worker, bands of the result
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * @return nanoseconds the worker spent in its kernel
+     */
+    public long getComputeNanos() {
+        return computeNanos;
+    }
+
+    /**
+     * @return nanoseconds from the first band sent to the last result received, summed over multiplies
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    /**
+     * @return GFLOP/s while the worker was computing
+     */
+    public double getComputeGflops() {
+        return computeNanos == 0 ? 0 : 2.0 * multiplyAdds / computeNanos;
+    }
+
+    /**
+     * @return GFLOP/s including the time spent moving data, what the worker actually added
+     */
+    public double getEffectiveGflops() {
+        return busyNanos == 0 ? 0 : 2.0 * multiplyAdds / busyNanos;
+    }
+
+    /**
+     * @return megabytes per second moved over the socket in both directions while busy
+     */
+    public double getMegabytesPerSecond() {
+        return busyNanos == 0 ? 0 : (bytesSent + bytesReceived) * 1000.0 / busyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("worker %d: %d bands, %.2f GFLOP/s computing, %.2f GFLOP/s effective, %.1f MB/s, %d bytes sent, %d received",
+                worker, bands, getComputeGflops(), getEffectiveGflops(), getMegabytesPerSecond(), bytesSent, bytesReceived);
+    }
+}
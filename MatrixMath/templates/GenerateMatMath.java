@@ -0,0 +1,90 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates the primitive specialized MatMath variants in src/matrix from
+ * MatMathPrimitive.java.template. Run it from the MatrixMath folder with
+ *
+ * java templates/GenerateMatMath.java
+ *
+ * $NAME$, $IN$, $OUT$ and $WHY$ in the template are replaced. $WIDEN$ becomes
+ * a cast to the result type when the operand type is narrower and nothing
+ * otherwise, so no variant has a redundant cast, and $WIDEN_NOTE$ becomes a
+ * comment saying so under the same condition. Lines between //#if FLOATING,
+ * //#else and //#endif are kept or dropped depending on whether the result
+ * type is floating point. The class comment is rewrapped afterwards, so the
+ * substituted words do not leave ragged lines
+ *
+ * @author Peter Swantek
+ *
+ */
+public class GenerateMatMath {
+
+    private static final int WIDTH = 80; // the column the class comment is wrapped at
+
+    private static final String[][] VARIANTS = {
+            // name, operand type, result type, why it exists
+            { "MatMathWide", "int", "long", "so products of ints that overflow an int are still exact" },
+            { "MatMathLong", "long", "long", "for values that do not fit in an int" },
+            { "MatMathFloat", "float", "float", "for fractional values where memory matters more than precision" },
+            { "MatMathDouble", "double", "double", "for fractional values" } };
+
+    public static void main(String[] args) throws IOException {
+        Path root = Paths.get(args.length > 0 ? args[0] : ".");
+        List<String> template = Files.readAllLines(root.resolve("templates/MatMathPrimitive.java.template"));
+        for (String[] variant : VARIANTS) {
+            boolean floating = variant[2].equals("float") || variant[2].equals("double");
+            boolean widens = !variant[1].equals(variant[2]);
+            List<String> out = new ArrayList<>();
+            boolean keep = true;
+            for (String line : template) {
+                String directive = line.trim();
+                if (directive.equals("//#if FLOATING")) {
+                    keep = floating;
+                } else if (directive.equals("//#else")) {
+                    keep = !floating;
+                } else if (directive.equals("//#endif")) {
+                    keep = true;
+                } else if (keep) {
+                    out.add(line.replace("$NAME$", variant[0]).replace("$IN$", variant[1]).replace("$OUT$", variant[2]).replace("$WHY$", variant[3])
+                            .replace("$WIDEN$", widens ? "(" + variant[2] + ") " : "")
+                            .replace("$WIDEN_NOTE$", widens ? " // widened before multiplying" : ""));
+                }
+            }
+            rewrapClassComment(out);
+            Path target = root.resolve("src/matrix/" + variant[0] + ".java");
+            Files.write(target, out);
+            System.out.println("wrote " + target);
+        }
+    }
+
+    /*
+     * rewraps the text of the first javadoc comment up to its first blank or
+     * tag line as one paragraph
+     */
+    private static void rewrapClassComment(List<String> lines) {
+        int start = lines.indexOf("/**") + 1;
+        int end = start;
+        StringBuilder text = new StringBuilder();
+        while (end < lines.size() && lines.get(end).startsWith(" * ") && !lines.get(end).startsWith(" * @")) {
+            text.append(' ').append(lines.get(end).substring(3).trim());
+            end++;
+        }
+        List<String> wrapped = new ArrayList<>();
+        StringBuilder line = new StringBuilder(" *");
+        for (String word : text.toString().trim().split(" +")) {
+            if (line.length() + 1 + word.length() > WIDTH && line.length() > 2) {
+                wrapped.add(line.toString());
+                line = new StringBuilder(" *");
+            }
+            line.append(' ').append(word);
+        }
+        wrapped.add(line.toString());
+        lines.subList(start, end).clear();
+        lines.addAll(start, wrapped);
+    }
+}